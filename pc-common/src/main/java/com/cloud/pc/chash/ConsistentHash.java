@@ -35,7 +35,8 @@ public class ConsistentHash {
         int virtualNodeCount = (int) (baseVirtualNodeCount*(1+node.getPriority()));
         List<Long> virtualHashes = new ArrayList<>(virtualNodeCount);
         for (int i = 0; i < virtualNodeCount; i++) {
-            String virtualNode = node + "#" + i;
+            // the same virtual nodes as the go sdk, so every client and PCP builds the same ring
+            String virtualNode = node.key() + "#" + i;
             long hash = hashFunction.hash(virtualNode);
             virtualHashes.add(hash);
             hashRing.put(hash, node.key());
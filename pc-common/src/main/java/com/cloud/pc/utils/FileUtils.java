@@ -24,6 +24,7 @@ import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.text.DecimalFormat;
@@ -89,6 +90,15 @@ public class FileUtils {
         }
     }
 
+    // make the entries of the dir durable, so a synced new file isn't lost with its name
+    public static void syncDir(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // not every platform can open a dir for sync
+        }
+    }
+
     public static boolean mkParentDir(Path path) {
         if (path == null || path.toString().isEmpty()) {
             return false;
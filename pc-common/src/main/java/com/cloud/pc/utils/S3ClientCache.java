@@ -25,9 +25,12 @@ import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.auth.credentials.AwsCredentials;
 import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
-import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.utils.SdkAutoCloseable;
 import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.S3Configuration;
 
@@ -38,6 +41,9 @@ import java.util.concurrent.TimeUnit;
 public class S3ClientCache {
     private static final Logger LOG = LoggerFactory.getLogger(UrlProbe.class);
     public static Cache<StsInfo, S3Client> s3SyncClientCache ;
+    public static Cache<StsInfo, S3AsyncClient> s3AsyncClientCache ;
+    // shared by every async client, the SDK doesn't close an http client it's given, so it's closed at shutdown
+    private static volatile SdkAsyncHttpClient nettyHttpClient;
 
     private static final String CONFIG_PREFIX = "pc.s3.client.";
 
@@ -59,7 +65,13 @@ public class S3ClientCache {
     private static final int SOCKET_TIMEOUT_SECONDS = ComUtils.getProps(
             CONFIG_PREFIX + "http.socketTimeout", 30, Integer::valueOf);
 
-    private static Cache<StsInfo, S3Client> buildS3SyncClientCache() {
+    // async HTTP pool configuration
+    private static final int HTTP_MAX_CONCURRENCY = ComUtils.getProps(
+            CONFIG_PREFIX + "http.maxConcurrency", 1000, Integer::valueOf);
+    private static final int HTTP_MAX_PENDING_ACQUIRES = ComUtils.getProps(
+            CONFIG_PREFIX + "http.maxPendingAcquires", 10000, Integer::valueOf);
+
+    private static <T extends SdkAutoCloseable> Cache<StsInfo, T> buildS3ClientCache() {
         if (!CACHE_ENABLED) {
             LOG.debug("S3 client cache is disabled");
             return null;
@@ -68,8 +80,8 @@ public class S3ClientCache {
         return CacheBuilder.newBuilder()
                 .maximumSize(CACHE_MAX_SIZE)
                 .expireAfterAccess(CACHE_EXPIRE_TIME_MINUTES, TimeUnit.MINUTES)
-                .removalListener((RemovalListener<StsInfo, S3Client>) ele -> {
-                    S3Client client;
+                .removalListener((RemovalListener<StsInfo, T>) ele -> {
+                    T client;
                     if ((client = ele.getValue()) != null) {
                         String cause = ele.getCause().name();
                         LOG.debug("remove S3 client from cache. cause: {}, key: {}",
@@ -111,13 +123,31 @@ public class S3ClientCache {
                 .build();
     }
 
-    private static SdkHttpClient buildApacheHttpClient() {
+    // the client builds the http client from it and closes it along with itself
+    private static ApacheHttpClient.Builder apacheHttpClientBuilder() {
         return ApacheHttpClient.builder()
                 .maxConnections(HTTP_MAX_CONNECTIONS)
                 .connectionTimeout(Duration.ofSeconds(HTTP_CONNECTION_TIMEOUT_SECONDS))
                 .socketTimeout(Duration.ofSeconds(SOCKET_TIMEOUT_SECONDS))
-                .connectionTimeToLive(Duration.ofMinutes(5)) // 连接TTL
-                .build();
+                .connectionTimeToLive(Duration.ofMinutes(5)); // 连接TTL
+    }
+
+    private static SdkAsyncHttpClient nettyHttpClient() {
+        if (nettyHttpClient == null) {
+            synchronized (S3ClientCache.class) {
+                if (nettyHttpClient == null) {
+                    nettyHttpClient = NettyNioAsyncHttpClient.builder()
+                            .maxConcurrency(HTTP_MAX_CONCURRENCY)
+                            .maxPendingConnectionAcquires(HTTP_MAX_PENDING_ACQUIRES)
+                            .connectionTimeout(Duration.ofSeconds(HTTP_CONNECTION_TIMEOUT_SECONDS))
+                            .readTimeout(Duration.ofSeconds(SOCKET_TIMEOUT_SECONDS))
+                            .writeTimeout(Duration.ofSeconds(SOCKET_TIMEOUT_SECONDS))
+                            .connectionTimeToLive(Duration.ofMinutes(5))
+                            .build();
+                }
+            }
+        }
+        return nettyHttpClient;
     }
 
     private static S3Client newS3ClientInstance(StsInfo stsInfo) {
@@ -129,7 +159,20 @@ public class S3ClientCache {
                 .endpointOverride(URI.create(stsInfo.getEndpoint()))
                 .region(Region.of(stsInfo.getRegion()))
                 .credentialsProvider(StaticCredentialsProvider.create(buildAwsCredentials(stsInfo)))
-                .httpClient(buildApacheHttpClient()) // user http pool
+                .httpClientBuilder(apacheHttpClientBuilder()) // user http pool
+                .build();
+    }
+
+    private static S3AsyncClient newS3AsyncClientInstance(StsInfo stsInfo) {
+        if (stsInfo == null) {
+            throw new IllegalArgumentException("StsInfo cannot be null");
+        }
+        return S3AsyncClient.builder()
+                .serviceConfiguration(buildS3Configuration(stsInfo.getStorageType()))
+                .endpointOverride(URI.create(stsInfo.getEndpoint()))
+                .region(Region.of(stsInfo.getRegion()))
+                .credentialsProvider(StaticCredentialsProvider.create(buildAwsCredentials(stsInfo)))
+                .httpClient(nettyHttpClient())
                 .build();
     }
 
@@ -153,7 +196,7 @@ public class S3ClientCache {
             if (s3SyncClientCache == null) {
                 synchronized (S3ClientCache.class) {
                     if (s3SyncClientCache == null) {
-                        s3SyncClientCache = buildS3SyncClientCache();
+                        s3SyncClientCache = buildS3ClientCache();
                     }
                 }
             }
@@ -164,9 +207,45 @@ public class S3ClientCache {
         }
     }
 
+    // non-blocking client, the calls return at once and complete on the threads of the SDK
+    public static S3AsyncClient buildS3AsyncClient(StsInfo stsInfo, boolean uncached) {
+        if (uncached || !CACHE_ENABLED) {
+            LOG.debug("creating uncached S3 async client for key: {}", stsInfo.getAccessKey());
+            return newS3AsyncClientInstance(stsInfo);
+        }
+
+        try {
+            if (s3AsyncClientCache == null) {
+                synchronized (S3ClientCache.class) {
+                    if (s3AsyncClientCache == null) {
+                        s3AsyncClientCache = buildS3ClientCache();
+                    }
+                }
+            }
+            return s3AsyncClientCache.get(stsInfo, () -> newS3AsyncClientInstance(stsInfo));
+        } catch (Throwable e) {
+            LOG.error("exception to get S3 async client from cache for key: {}", stsInfo.getAccessKey(), e);
+            return newS3AsyncClientInstance(stsInfo);
+        }
+    }
+
     public static void invalidateCache() {
         if (s3SyncClientCache != null) {
             s3SyncClientCache.invalidateAll();
         }
+        if (s3AsyncClientCache != null) {
+            s3AsyncClientCache.invalidateAll();
+        }
+    }
+
+    // close the cached clients and the shared http client, no async client works afterwards
+    public static void shutdown() {
+        invalidateCache();
+        synchronized (S3ClientCache.class) {
+            if (nettyHttpClient != null) {
+                nettyHttpClient.close();
+                nettyHttpClient = null;
+            }
+        }
     }
 }
@@ -17,6 +17,8 @@
 package com.cloud.pc;
 
 import com.cloud.pc.config.Envs;
+import com.cloud.pc.disk.DiskVolumes;
+import com.cloud.pc.task.BaseTask;
 import com.cloud.pc.task.GetTask;
 import com.cloud.pc.task.PutTask;
 
@@ -26,53 +28,104 @@ import io.netty.util.concurrent.DefaultThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import static com.cloud.pc.utils.HttpHelper.sendError;
 import static io.netty.handler.codec.http.HttpMethod.GET;
 import static io.netty.handler.codec.http.HttpMethod.POST;
 import static io.netty.handler.codec.http.HttpResponseStatus.*;
 
-public class FileServerHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+public class FileServerHandler extends SimpleChannelInboundHandler<HttpObject> {
     private static final Logger LOG = LoggerFactory.getLogger(FileServerHandler.class);
 
-    private static final ExecutorService fileExecutor =
-            new ThreadPoolExecutor(Envs.corePoolSize, Envs.maximumPoolSize, Envs.keepAliveTime, TimeUnit.SECONDS,
-                    new LinkedBlockingQueue<>(Envs.linkedBlockingQueueSize),
-                    new DefaultThreadFactory("File-Thread"));
+    // misses fetched from remote, apart from the disk pools so slow fetches can't hold back disk hits
+    private static final ExecutorService remoteExecutor =
+            new ThreadPoolExecutor(Envs.remotePoolSize, Envs.remoteMaxPoolSize, Envs.keepAliveTime, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(Envs.remoteQueueSize), new DefaultThreadFactory("Remote-Thread"));
+
+    // upload whose body is being received on the connection
+    private PutTask putTask;
 
     @Override
-    public void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request) {
+    public void channelRead0(ChannelHandlerContext ctx, HttpObject msg) {
+        if (msg instanceof HttpRequest) {
+            onRequest(ctx, (HttpRequest) msg);
+        }
+        if (msg instanceof HttpContent && putTask != null) {
+            putTask.offer((HttpContent) msg);
+            if (msg instanceof LastHttpContent) {
+                putTask = null;
+            }
+        }
+    }
+
+    private void onRequest(ChannelHandlerContext ctx, HttpRequest request) {
         LOG.debug("new request from ip={} uri={}", ctx.channel().remoteAddress().toString(), request.uri());
+        putTask = null;
         if (!request.decoderResult().isSuccess()) {
             LOG.error("[request]failed to decoder request！reason:{}", request.decoderResult().cause());
-            sendError(ctx, BAD_REQUEST);
+            sendError(ctx, BAD_REQUEST).addListener(ChannelFutureListener.CLOSE);
             return;
         }
         try {
-            // create task
-            Runnable task;
+            // create task, the body of a PUT is streamed to the task while it's running
+            BaseTask task;
             if (request.method() == GET) {
                 task = new GetTask(ctx, request);
             } else if (request.method() == POST) {
                 task = new PutTask(ctx, request);
             } else {
                 LOG.error("[request]method{} is not allowed", request.method());
+                sendError(ctx, METHOD_NOT_ALLOWED);
                 return;
             }
-            fileExecutor.submit(task);
+            if (task instanceof PutTask) {
+                putTask = (PutTask) task;
+            }
+            if (task instanceof GetTask) {
+                GetTask getTask = (GetTask) task;
+                // a memory hit needs no thread
+                if (getTask.serveFromMemory()) {
+                    return;
+                }
+                if (!getTask.isOnLocalDisk()) {
+                    remoteExecutor.submit(task);
+                    return;
+                }
+            }
+            // run on the pool of the data dir the block is on
+            DiskVolumes.instance().executorFor(task.getBlockPath(), task.getLocalFile()).submit(task);
         }catch (RejectedExecutionException e) {
+            if (putTask != null) {
+                putTask.abort();
+                putTask = null;
+            }
             sendError(ctx, HttpResponseStatus.TOO_MANY_REQUESTS);
         } catch (Exception e) {
             LOG.error("exception for request {}", request, e);
+            // every request is answered, or the connection would wait for it until closed
+            sendError(ctx, BAD_REQUEST);
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        if (putTask != null) {
+            putTask.abort();
+            putTask = null;
         }
+        super.channelInactive(ctx);
     }
 
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
         LOG.error("exception caught from ip={}", ctx.channel().remoteAddress().toString(), cause);
         if (ctx.channel().isActive()) {
-            sendError(ctx, INTERNAL_SERVER_ERROR);
+            sendError(ctx, INTERNAL_SERVER_ERROR).addListener(ChannelFutureListener.CLOSE);
         }
     }
 }
\ No newline at end of file
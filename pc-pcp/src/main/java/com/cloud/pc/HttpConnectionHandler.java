@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2025 Yangagile. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloud.pc;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpStatusClass;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.timeout.IdleStateEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Lifecycle of a persistent connection, it sits in front of HttpServerKeepAliveHandler.
+ * The last allowed request of a connection is marked as non keep-alive, so the connection
+ * is closed once it's answered. An idle connection is closed only if no response is
+ * pending, a request waiting for remote can be quiet for a long time.
+ */
+public class HttpConnectionHandler extends ChannelDuplexHandler {
+    private static final Logger LOG = LoggerFactory.getLogger(HttpConnectionHandler.class);
+
+    private final int maxRequests;
+    private int requests = 0;
+    private int pendingResponses = 0;
+    private boolean informational = false;
+
+    public HttpConnectionHandler(int maxRequests) {
+        this.maxRequests = maxRequests;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof HttpRequest) {
+            requests++;
+            pendingResponses++;
+            if (maxRequests > 0 && requests >= maxRequests) {
+                HttpUtil.setKeepAlive((HttpRequest) msg, false);
+            }
+        }
+        super.channelRead(ctx, msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof HttpResponse) {
+            // 100-continue doesn't finish the exchange
+            informational = ((HttpResponse) msg).status().codeClass() == HttpStatusClass.INFORMATIONAL;
+        }
+        if (msg instanceof LastHttpContent) {
+            if (!informational && pendingResponses > 0) {
+                pendingResponses--;
+            }
+            informational = false;
+        }
+        super.write(ctx, msg, promise);
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        if (evt instanceof IdleStateEvent) {
+            if (pendingResponses == 0) {
+                LOG.debug("close idle connection {} after {} requests", ctx.channel().remoteAddress(), requests);
+                ctx.close();
+            }
+            return;
+        }
+        super.userEventTriggered(ctx, evt);
+    }
+}
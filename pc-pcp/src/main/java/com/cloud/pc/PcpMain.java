@@ -17,73 +17,175 @@
 package com.cloud.pc;
 
 import com.cloud.pc.cache.BlockCache;
+import com.cloud.pc.cache.BucketPartitions;
+import com.cloud.pc.cache.IEvictionPolicy;
+import com.cloud.pc.cache.LFUEvictionPolicy;
 import com.cloud.pc.cache.LRUEvictionPolicy;
+import com.cloud.pc.cache.SlabArena;
+import com.cloud.pc.cache.TinyLFUEvictionPolicy;
 import com.cloud.pc.config.Envs;
+import com.cloud.pc.disk.DiskEvictor;
+import com.cloud.pc.disk.DiskIndex;
+import com.cloud.pc.disk.DiskVolumes;
+import com.cloud.pc.disk.DiskWriter;
+import com.cloud.pc.disk.MappedBlockReader;
+import com.cloud.pc.disk.SegmentStore;
+import com.cloud.pc.scanner.DiskUsage;
 import com.cloud.pc.scanner.impl.DirectoryScannerImpl;
 import com.cloud.pc.pulse.PulseTask;
 import com.cloud.pc.stats.BlockCounter;
+import com.cloud.pc.upload.UploadJournal;
+import com.cloud.pc.upload.WriteBackUploader;
+import com.cloud.pc.utils.S3ClientCache;
+import com.cloud.pc.utils.TransportHelper;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpServerExpectContinueHandler;
+import io.netty.handler.codec.http.HttpServerKeepAliveHandler;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import io.netty.handler.codec.http.HttpServerCodec;
+import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 public class PcpMain {
 
+    private static Supplier<IEvictionPolicy> evictionPolicy(String name) {
+        switch (name.toLowerCase()) {
+            case "lru":
+                return LRUEvictionPolicy::new;
+            case "lfu":
+                return LFUEvictionPolicy::new;
+            case "tinylfu":
+                // each size class has its own policy per segment
+                int expectedEntries = (int) (Envs.BlockCacheSize / Envs.defaultBlockSize
+                        / ((long) Envs.BlockCacheSegments * (Envs.BlockCacheSizeClasses.length + 1)));
+                return () -> new TinyLFUEvictionPolicy(expectedEntries,
+                        Envs.TinyLfuWindowPercent, Envs.TinyLfuDecayPeriod);
+            default:
+                throw new IllegalArgumentException("unknown block cache policy " + name);
+        }
+    }
+
     public static void main(String[] args) {
         System.setProperty("LOG_HOME", Envs.logDir);
         System.setProperty("APP_NAME", "pcp");
 
-        EventLoopGroup bossGroup = new NioEventLoopGroup(1);
-        EventLoopGroup workerGroup = new NioEventLoopGroup(Runtime.getRuntime().availableProcessors() * 2);
+        boolean epoll = TransportHelper.useEpoll();
+        int acceptors = TransportHelper.acceptorCount(epoll);
+        EventLoopGroup bossGroup = TransportHelper.newEventLoopGroup(epoll, acceptors, "Boss-Thread");
+        EventLoopGroup workerGroup = TransportHelper.newEventLoopGroup(epoll, Envs.workerThreads, "Worker-Thread");
         ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+        // java can't lower the io priority, the reconcile scan is throttled by pcp.disk.reconcile.rate instead
+        ScheduledExecutorService reconciler = Executors.newSingleThreadScheduledExecutor(
+                new DefaultThreadFactory("Reconcile-Thread", true, Thread.MIN_PRIORITY));
 
         try {
             ServerBootstrap serverBootstrap = new ServerBootstrap();
             serverBootstrap.group(bossGroup, workerGroup)
-                    .channel(NioServerSocketChannel.class)
-                    .option(ChannelOption.SO_BACKLOG, 1024)
-                    .option(ChannelOption.SO_REUSEADDR, true)
-                    .childOption(ChannelOption.SO_KEEPALIVE, true)
+                    .channel(TransportHelper.serverChannelClass(epoll));
+            TransportHelper.configure(serverBootstrap, epoll);
+            serverBootstrap
                     .childHandler(new ChannelInitializer<SocketChannel>() {
                         @Override
                         protected void initChannel(SocketChannel ch) {
                             ch.pipeline().addLast(new HttpServerCodec());
-                            ch.pipeline().addLast(new HttpObjectAggregator(10*1024*1024));
+                            ch.pipeline().addLast(new IdleStateHandler(0, 0, Envs.httpIdleTimeout));
+                            ch.pipeline().addLast(new HttpConnectionHandler(Envs.httpMaxRequests));
+                            ch.pipeline().addLast(new HttpServerKeepAliveHandler());
+                            ch.pipeline().addLast(new HttpServerExpectContinueHandler());
                             ch.pipeline().addLast(new FileServerHandler());
                         }
                     });
 
-            ChannelFuture f = serverBootstrap.bind(Envs.port).sync();
-            System.out.println("\n========================================");
-            System.out.printf("🚀 PCP is running at port: %d \n", Envs.port);
-            System.out.println("========================================");
-
             // init block Cache
-            BlockCache.init(Envs.BlockCacheSize, new LRUEvictionPolicy());
+            SlabArena arena = null;
+            if (Envs.BlockCacheOffHeap) {
+                arena = new SlabArena(Envs.BlockCacheSize, Envs.BlockCacheSlabSize, Envs.BlockCachePageSize);
+            }
+            BlockCache.init(Envs.BlockCacheSize, Envs.BlockCacheSegments,
+                    evictionPolicy(Envs.BlockCachePolicy), arena, Envs.BlockCacheSizeClasses,
+                    BucketPartitions.of(Envs.BlockCacheBucketShares, Envs.BlockCacheSize));
             BlockCounter.instance().reset();
+            long rebalanceStep = Envs.BlockCacheSize / 100 * Envs.BlockCacheRebalanceStepPercent;
+            long classMinCapacity = Envs.BlockCacheSize / 100 * Envs.BlockCacheClassMinPercent;
+            scheduler.scheduleAtFixedRate(() -> BlockCache.instance().rebalance(rebalanceStep, classMinCapacity),
+                    Envs.BlockCacheRebalanceInterval, Envs.BlockCacheRebalanceInterval, TimeUnit.MILLISECONDS);
 
-            // directory scanner
-            DirectoryScannerImpl dataScanner = new DirectoryScannerImpl();
-            scheduler.scheduleAtFixedRate(dataScanner, 0, 60, TimeUnit.SECONDS);
+            // data dirs, one pool each
+            DiskVolumes diskVolumes = DiskVolumes.init(Envs.dataDirs, Envs.corePoolSize, Envs.maximumPoolSize,
+                    Envs.linkedBlockingQueueSize, Envs.keepAliveTime);
+            scheduler.scheduleAtFixedRate(diskVolumes::refresh, 10, 10, TimeUnit.SECONDS);
+
+            // disk index, usage is counted from the index so it must listen before loading
+            DiskIndex diskIndex = DiskIndex.init(Envs.diskIndexDir);
+            DiskUsage diskUsage = new DiskUsage(diskIndex, Envs.timeSpan, Envs.timeSpanDelete);
+            diskIndex.addListener(diskVolumes);
+            if (Envs.diskMmapEnable) {
+                MappedBlockReader.init(diskIndex, Envs.diskMmapSize);
+            }
+            SegmentStore segmentStore = null;
+            if (Envs.diskSegmentEnable) {
+                segmentStore = SegmentStore.init(diskIndex, diskVolumes, Envs.diskSegmentBlockMax,
+                        Envs.diskSegmentSize, Envs.diskSegmentCompactPercent);
+            }
+            // keep the disk tier under pcp.available.size, buckets are counted from the index too
+            DiskEvictor diskEvictor = DiskEvictor.init(diskIndex, Envs.availableSize, Envs.diskEvictHighPercent,
+                    Envs.diskEvictLowPercent, BucketPartitions.of(Envs.diskBucketShares, Envs.availableSize));
+            boolean loaded = diskIndex.load();
+            // uploads owed by blocks acked from disk, their blocks are pinned before anything can evict them
+            WriteBackUploader uploader = WriteBackUploader.init(new UploadJournal(Paths.get(Envs.diskIndexDir)),
+                    Envs.writeBackConcurrency, Envs.writeBackMaxAttempts, Envs.writeBackRetryDelay,
+                    Envs.writeBackMaxRetryDelay);
+            uploader.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(S3ClientCache::shutdown, "S3Client-Shutdown"));
+            DiskWriter.init(diskIndex, diskVolumes, Envs.diskWriterQueueSize, Envs.diskWriterBatch);
+            if (segmentStore != null) {
+                segmentStore.open();
+                segmentStore.start(Envs.diskSegmentCompactInterval);
+                Runtime.getRuntime().addShutdownHook(new Thread(segmentStore::shutdown, "Segment-Shutdown"));
+            }
+            scheduler.scheduleAtFixedRate(diskIndex::checkpoint, Envs.diskIndexCheckpointPeriod,
+                    Envs.diskIndexCheckpointPeriod, TimeUnit.MILLISECONDS);
+            Runtime.getRuntime().addShutdownHook(new Thread(diskIndex::close, "DiskIndex-Shutdown"));
+
+            diskEvictor.start(Envs.diskEvictInterval);
+
+            // reconcile the index with the data dir, right away if there was nothing to load
+            reconciler.scheduleWithFixedDelay(new DirectoryScannerImpl(diskIndex, Envs.dataDirs),
+                    loaded ? Envs.diskReconcileInterval : 0, Envs.diskReconcileInterval, TimeUnit.MILLISECONDS);
+            scheduler.scheduleAtFixedRate(diskUsage, 60, 60, TimeUnit.SECONDS);
+
+            // serve requests once everything they use is ready
+            List<ChannelFuture> futures = TransportHelper.bind(serverBootstrap, Envs.port, acceptors);
+            System.out.println("\n========================================");
+            System.out.printf("🚀 PCP is running at port: %d transport: %s acceptors: %d\n",
+                    Envs.port, epoll ? "epoll" : "nio", acceptors);
+            System.out.println("========================================");
 
             // pulse
-            scheduler.scheduleAtFixedRate(new PulseTask(dataScanner), 0, 60, TimeUnit.SECONDS);
+            scheduler.scheduleAtFixedRate(new PulseTask(diskUsage), 0, 60, TimeUnit.SECONDS);
 
-            f.channel().closeFuture().sync();
+            for (ChannelFuture f : futures) {
+                f.channel().closeFuture().sync();
+            }
 
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+        } catch (InterruptedException | IOException e) {
+            // not a static logger, the log dir is set at the start of main
+            LoggerFactory.getLogger(PcpMain.class).error("exception to run PCP", e);
         } finally {
             bossGroup.shutdownGracefully();
             workerGroup.shutdownGracefully();
             scheduler.shutdown();
+            reconciler.shutdownNow();
         }
     }
 }
\ No newline at end of file
@@ -16,89 +16,220 @@
 
 package com.cloud.pc.cache;
 
+import io.netty.buffer.ByteBuf;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 
+/**
+ * Memory cache of blocks. Blocks are kept in size classes, so a few large blocks don't
+ * evict many small hot ones. Each class has its own capacity share, and is split into
+ * segments selected by the hash of the block path, each segment has its own lock,
+ * eviction policy and capacity share, so hits on different segments don't contend with
+ * each other. The shares are rebalanced from time to time, the class with
+ * the fewest hits per byte gives a step of its capacity to the full class with the most.
+ * Across the classes, the memory a bucket takes is kept within its share of the cache.
+ */
 public class BlockCache {
+    private static final Logger LOG = LoggerFactory.getLogger(BlockCache.class);
+
+    private final SizeClass[] classes;
     private final long capacity;
-    private final AtomicLong size = new AtomicLong(0);
-    private final IEvictionPolicy evictStrategy;
-    private final ConcurrentHashMap<String, CacheNode> cache;
-    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final BucketPartitions partitions;
     private static volatile BlockCache instance;
 
+    private static class SizeClass {
+        // blocks up to the size, the last class takes the rest
+        private final long maxBlockSize;
+        private final CacheSegment[] segments;
+        private final AtomicLong hits = new AtomicLong();
+        private long lastHits;
+
+        SizeClass(long maxBlockSize, long capacity, int segmentCount, Supplier<IEvictionPolicy> strategyFactory,
+                  SlabArena arena, BucketPartitions partitions) {
+            this.maxBlockSize = maxBlockSize;
+            this.segments = new CacheSegment[segmentCount];
+            for (int i = 0; i < segmentCount; i++) {
+                segments[i] = new CacheSegment(share(capacity, i), strategyFactory.get(), arena, partitions);
+            }
+        }
+
+        // the last segment takes the remainder
+        private long share(long capacity, int i) {
+            long share = capacity / segments.length;
+            return i == segments.length - 1 ? capacity - share * (segments.length - 1) : share;
+        }
+
+        CacheSegment segmentFor(String blockPath) {
+            int h = blockPath.hashCode();
+            // spread the high bits, as HashMap does
+            h ^= (h >>> 16);
+            return segments[(h & 0x7fffffff) % segments.length];
+        }
+
+        long capacity() {
+            long capacity = 0;
+            for (CacheSegment segment : segments) {
+                capacity += segment.capacity();
+            }
+            return capacity;
+        }
+
+        void setCapacity(long capacity) {
+            for (int i = 0; i < segments.length; i++) {
+                segments[i].setCapacity(share(capacity, i));
+            }
+        }
+
+        long size() {
+            long size = 0;
+            for (CacheSegment segment : segments) {
+                size += segment.size();
+            }
+            return size;
+        }
+    }
+
     public static void init(long capacity, IEvictionPolicy strategy) {
-        instance = new BlockCache(capacity, strategy);
+        init(capacity, strategy, null);
+    }
+
+    public static void init(long capacity, IEvictionPolicy strategy, SlabArena arena) {
+        init(capacity, 1, () -> strategy, arena);
+    }
+
+    public static void init(long capacity, int segmentCount, Supplier<IEvictionPolicy> strategyFactory,
+                            SlabArena arena) {
+        init(capacity, segmentCount, strategyFactory, arena, new long[0]);
+    }
+
+    // classBounds are the max block sizes of the classes but the last one, in ascending order
+    public static void init(long capacity, int segmentCount, Supplier<IEvictionPolicy> strategyFactory,
+                            SlabArena arena, long[] classBounds) {
+        init(capacity, segmentCount, strategyFactory, arena, classBounds, BucketPartitions.none());
+    }
+
+    public static void init(long capacity, int segmentCount, Supplier<IEvictionPolicy> strategyFactory,
+                            SlabArena arena, long[] classBounds, BucketPartitions partitions) {
+        instance = new BlockCache(capacity, segmentCount, strategyFactory, arena, classBounds, partitions);
     }
 
     public static BlockCache instance() {
         return instance;
     }
 
-    private BlockCache(long capacity, IEvictionPolicy strategy) {
+    private BlockCache(long capacity, int segmentCount, Supplier<IEvictionPolicy> strategyFactory,
+                       SlabArena arena, long[] classBounds, BucketPartitions partitions) {
         if (capacity <= 0) {
             throw new IllegalArgumentException("Capacity must be positive");
         }
+        int classCount = classBounds.length + 1;
+        if (segmentCount <= 0 || (long) segmentCount * classCount > capacity) {
+            throw new IllegalArgumentException("invalid segment count " + segmentCount);
+        }
         this.capacity = capacity;
-        this.evictStrategy = strategy;
-        this.cache = new ConcurrentHashMap<>();
+        this.partitions = partitions;
+        this.classes = new SizeClass[classCount];
+        long share = capacity / classCount;
+        long minBlockSize = 0;
+        for (int i = 0; i < classCount; i++) {
+            long maxBlockSize = i < classBounds.length ? classBounds[i] : Long.MAX_VALUE;
+            if (maxBlockSize <= minBlockSize) {
+                throw new IllegalArgumentException("size classes must be ascending " + maxBlockSize);
+            }
+            // the last class takes the remainder
+            long classCapacity = i == classCount - 1 ? capacity - share * (classCount - 1) : share;
+            classes[i] = new SizeClass(maxBlockSize, classCapacity, segmentCount, strategyFactory, arena,
+                    partitions);
+            minBlockSize = maxBlockSize;
+        }
+    }
+
+    private SizeClass classFor(long blockSize) {
+        for (SizeClass sizeClass : classes) {
+            if (blockSize <= sizeClass.maxBlockSize) {
+                return sizeClass;
+            }
+        }
+        return classes[classes.length - 1];
     }
 
     public CacheNode getBlock(String blockPath) {
         if (blockPath == null) {
             return null;
         }
-        CacheNode node = cache.get(blockPath);
-        if (node != null) {
-            // ReentrantLock
-            evictionLock.lock();
-            try {
-                evictStrategy.access(node);
-            } finally {
-                evictionLock.unlock();
+        for (SizeClass sizeClass : classes) {
+            CacheNode node = sizeClass.segmentFor(blockPath).getBlock(blockPath);
+            if (node != null) {
+                sizeClass.hits.incrementAndGet();
+                return node;
             }
-            return node;
         }
         return null;
     }
 
-    // put block
+    // get block data and retain it, the caller must release it after use
+    public BlockData acquireBlock(String blockPath) {
+        if (blockPath == null) {
+            return null;
+        }
+        for (SizeClass sizeClass : classes) {
+            BlockData data = sizeClass.segmentFor(blockPath).acquireBlock(blockPath);
+            if (data != null) {
+                sizeClass.hits.incrementAndGet();
+                return data;
+            }
+        }
+        return null;
+    }
+
+    // check the block without touching the eviction policy
+    public boolean containsBlock(String blockPath) {
+        if (blockPath == null) {
+            return false;
+        }
+        for (SizeClass sizeClass : classes) {
+            if (sizeClass.segmentFor(blockPath).containsBlock(blockPath)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // put block, the array is kept without copy so it must not be changed afterwards
     public boolean putBlock(String blockPath, byte[] blockData) {
         if (blockData == null || blockPath == null ){
             throw new IllegalArgumentException();
         }
+        SizeClass sizeClass = classFor(blockData.length);
+        removeFromOthers(blockPath, sizeClass);
+        return sizeClass.segmentFor(blockPath).putBlock(blockPath, blockData);
+    }
 
-        evictionLock.lock();
-        try {
-            //if it's full, evict blocks
-            while (size.get() + blockData.length > capacity) {
-                CacheNode evictNode = evictStrategy.evict();
-                if (evictNode != null) {
-                    cache.remove(evictNode.blockPath);
-                    size.addAndGet(-evictNode.blockData.length);
-                } else {
-                    break;
-                }
-            }
-
-            // add new
-            CacheNode newNode = new CacheNode(blockPath, blockData.clone());
-            CacheNode oldNode = cache.put(blockPath, newNode);
+    // put block in a refcounted buffer, the cache takes over the reference of the caller
+    public boolean putBlock(String blockPath, ByteBuf blockData) {
+        if (blockData == null || blockPath == null ){
+            throw new IllegalArgumentException();
+        }
+        SizeClass sizeClass = classFor(blockData.readableBytes());
+        removeFromOthers(blockPath, sizeClass);
+        return sizeClass.segmentFor(blockPath).putBlock(blockPath, blockData);
+    }
 
-            if (oldNode != null) {
-                // replace old
-                evictStrategy.remove(oldNode);
-                size.addAndGet(-oldNode.blockData.length);
+    // an old copy of another size must not be found first
+    private void removeFromOthers(String blockPath, SizeClass sizeClass) {
+        for (SizeClass other : classes) {
+            if (other != sizeClass) {
+                other.segmentFor(blockPath).removeBlock(blockPath);
             }
-
-            evictStrategy.insert(newNode);
-            size.addAndGet(blockData.length);
-            return true;
-        } finally {
-            evictionLock.unlock();
         }
     }
 
@@ -106,36 +237,112 @@ public class BlockCache {
         if (blockPath == null) {
             return false;
         }
-        CacheNode node = cache.remove(blockPath);
-        size.addAndGet(-node.blockData.length);
-        if (node != null) {
-            evictionLock.lock();
-            try {
-                evictStrategy.remove(node);
-            } finally {
-                evictionLock.unlock();
+        boolean removed = false;
+        for (SizeClass sizeClass : classes) {
+            removed |= sizeClass.segmentFor(blockPath).removeBlock(blockPath);
+        }
+        return removed;
+    }
+
+    /**
+     * Move step of the capacity from the class with the fewest hits per byte since the last
+     * rebalance to the one with the most, if that one is full, so it can keep more of its
+     * blocks. A class keeps at least min capacity.
+     */
+    public synchronized void rebalance(long step, long minCapacity) {
+        if (classes.length < 2) {
+            return;
+        }
+        int classCount = classes.length;
+        long[] hits = new long[classCount];
+        long[] capacities = new long[classCount];
+        for (int i = 0; i < classCount; i++) {
+            long total = classes[i].hits.get();
+            hits[i] = total - classes[i].lastHits;
+            classes[i].lastHits = total;
+            capacities[i] = classes[i].capacity();
+        }
+        int best = -1;
+        int worst = -1;
+        for (int i = 0; i < classCount; i++) {
+            // hits per byte, compared by cross multiplication
+            boolean full = classes[i].size() + step >= capacities[i];
+            if (full && hits[i] > 0 && (best < 0 || hits[i] * capacities[best] > hits[best] * capacities[i])) {
+                best = i;
+            }
+            if (capacities[i] - step >= minCapacity
+                    && (worst < 0 || hits[i] * capacities[worst] < hits[worst] * capacities[i])) {
+                worst = i;
             }
-            return true;
         }
-        return false;
+        if (best < 0 || worst < 0 || best == worst
+                || hits[best] * capacities[worst] <= hits[worst] * capacities[best]) {
+            return;
+        }
+        classes[worst].setCapacity(capacities[worst] - step);
+        classes[best].setCapacity(capacities[best] + step);
+        LOG.info("rebalance block cache, class {} hits:{} capacity:{} gives {} to class {} hits:{} capacity:{}",
+                worst, hits[worst], capacities[worst], step, best, hits[best], capacities[best]);
     }
 
     public void clear() {
-        evictionLock.lock();
-        try {
-            cache.clear();
-            evictStrategy.clear();
-            size.set(0);
-        } finally {
-            evictionLock.unlock();
+        for (SizeClass sizeClass : classes) {
+            for (CacheSegment segment : sizeClass.segments) {
+                segment.clear();
+            }
         }
     }
 
     public Set<String> getCachedBlockPaths() {
-        return new HashSet<>(cache.keySet());
+        Set<String> paths = new HashSet<>();
+        for (SizeClass sizeClass : classes) {
+            for (CacheSegment segment : sizeClass.segments) {
+                paths.addAll(segment.getCachedBlockPaths());
+            }
+        }
+        return paths;
     }
 
     public long size() {
-        return size.get();
+        long size = 0;
+        for (SizeClass sizeClass : classes) {
+            size += sizeClass.size();
+        }
+        return size;
+    }
+
+    public long capacity() {
+        return capacity;
+    }
+
+    // sizes and hits of the buckets in memory
+    public BucketPartitions getPartitions() {
+        return partitions;
+    }
+
+    public int segmentCount() {
+        return classes[0].segments.length;
+    }
+
+    public int classCount() {
+        return classes.length;
+    }
+
+    public long getClassCapacity(int i) {
+        return classes[i].capacity();
+    }
+
+    // max block size, size, capacity and hits of every class
+    public List<Map<String, Object>> getClassStats() {
+        List<Map<String, Object>> stats = new ArrayList<>();
+        for (SizeClass sizeClass : classes) {
+            Map<String, Object> stat = new LinkedHashMap<>();
+            stat.put("maxBlockSize", sizeClass.maxBlockSize);
+            stat.put("size", sizeClass.size());
+            stat.put("capacity", sizeClass.capacity());
+            stat.put("hits", sizeClass.hits.get());
+            stats.add(stat);
+        }
+        return stats;
     }
 }
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2025 Yangagile. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloud.pc.cache;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.AbstractReferenceCounted;
+import io.netty.util.ReferenceCounted;
+
+/**
+ * Data of a cached block. The cache holds one reference, readers retain it while the
+ * data is in use, the memory is given back when the last reference is released.
+ */
+public abstract class BlockData extends AbstractReferenceCounted {
+
+    // size of the block
+    public abstract int size();
+
+    // memory taken by the block
+    public abstract long memorySize();
+
+    // view of the block data, valid until the reference is released
+    public abstract ByteBuf content();
+
+    @Override
+    public ReferenceCounted touch(Object hint) {
+        return this;
+    }
+}
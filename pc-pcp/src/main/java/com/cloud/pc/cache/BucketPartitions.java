@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2025 Yangagile. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cloud.pc.cache;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shares of a cache tier per bucket. A bucket may reserve a min share, its blocks aren't
+ * evicted for other buckets while it holds no more than that, so the part it doesn't use is
+ * only lent to them, they lose their blocks first once it needs it back. A bucket may be
+ * capped at a max share, then it only replaces its own blocks. Buckets without a share
+ * have neither. Size, hits, misses and hit bytes are counted for every bucket.
+ */
+public class BucketPartitions {
+    private final Map<String, long[]> limits;
+    private final Map<String, Partition> partitions = new ConcurrentHashMap<>();
+
+    private static class Partition {
+        private final long min;
+        private final long max;
+        private final AtomicLong size = new AtomicLong();
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+        private final AtomicLong hitBytes = new AtomicLong();
+
+        Partition(long min, long max) {
+            this.min = min;
+            this.max = max;
+        }
+    }
+
+    // min and max bytes of the buckets with a share
+    public BucketPartitions(Map<String, long[]> limits) {
+        this.limits = new HashMap<>(limits);
+    }
+
+    public static BucketPartitions none() {
+        return new BucketPartitions(Collections.emptyMap());
+    }
+
+    /**
+     * Parse shares of the capacity, comma separated bucket:minPercent:maxPercent, a max of 0
+     * means no cap. The mins can't add up to more than the capacity.
+     */
+    public static BucketPartitions of(String shares, long capacity) {
+        Map<String, long[]> limits = new HashMap<>();
+        long totalMin = 0;
+        if (shares != null && !shares.trim().isEmpty()) {
+            for (String share : shares.trim().split("\\s*,\\s*")) {
+                String[] cols = share.split(":");
+                if (cols.length != 3) {
+                    throw new IllegalArgumentException("invalid bucket share " + share);
+                }
+                int minPercent = Integer.parseInt(cols[1]);
+                int maxPercent = Integer.parseInt(cols[2]);
+                if (minPercent < 0 || maxPercent < 0 || maxPercent > 100
+                        || (maxPercent > 0 && maxPercent < minPercent)) {
+                    throw new IllegalArgumentException("invalid bucket share " + share);
+                }
+                long min = capacity / 100 * minPercent;
+                long max = maxPercent == 0 ? Long.MAX_VALUE : capacity / 100 * maxPercent;
+                limits.put(cols[0], new long[]{min, max});
+                totalMin += min;
+            }
+        }
+        if (totalMin > capacity) {
+            throw new IllegalArgumentException("bucket shares reserve more than the capacity " + shares);
+        }
+        return new BucketPartitions(limits);
+    }
+
+    // bucket of a block path bucket/key.n_t
+    public static String bucketOf(String blockPath) {
+        int pos = blockPath.indexOf('/');
+        return pos < 0 ? "" : blockPath.substring(0, pos);
+    }
+
+    private Partition partition(String blockPath) {
+        return partitions.computeIfAbsent(bucketOf(blockPath), bucket -> {
+            long[] limit = limits.get(bucket);
+            return limit == null ? new Partition(0, Long.MAX_VALUE) : new Partition(limit[0], limit[1]);
+        });
+    }
+
+    public void added(String blockPath, long size) {
+        partition(blockPath).size.addAndGet(size);
+    }
+
+    public void removed(String blockPath, long size) {
+        partition(blockPath).size.addAndGet(-size);
+    }
+
+    public void hit(String blockPath, long bytes) {
+        Partition partition = partition(blockPath);
+        partition.hits.incrementAndGet();
+        partition.hitBytes.addAndGet(bytes);
+    }
+
+    public void miss(String blockPath) {
+        partition(blockPath).misses.incrementAndGet();
+    }
+
+    // whether the block can be evicted to make room for a block of the path, null for no block
+    public boolean canEvict(String victimPath, String forPath) {
+        if (limits.isEmpty()) {
+            return true;
+        }
+        Partition victim = partition(victimPath);
+        if (forPath != null && victim == partition(forPath)) {
+            return true;
+        }
+        return victim.size.get() > victim.min;
+    }
+
+    // whether extra bytes more for the bucket of the path would go above its max
+    public boolean overMax(String blockPath, long extra) {
+        if (limits.isEmpty()) {
+            return false;
+        }
+        Partition partition = partition(blockPath);
+        return partition.max != Long.MAX_VALUE && partition.size.get() + extra > partition.max;
+    }
+
+    public boolean anyOverMax() {
+        for (Partition partition : partitions.values()) {
+            if (partition.max != Long.MAX_VALUE && partition.size.get() > partition.max) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isEmpty() {
+        return limits.isEmpty();
+    }
+
+    public long size(String bucket) {
+        Partition partition = partitions.get(bucket);
+        return partition == null ? 0 : partition.size.get();
+    }
+
+    // size, min, max, hits, misses and hit bytes of every bucket seen
+    public Map<String, Map<String, Long>> getStats() {
+        Map<String, Map<String, Long>> stats = new TreeMap<>();
+        for (Map.Entry<String, Partition> e : partitions.entrySet()) {
+            Partition partition = e.getValue();
+            Map<String, Long> stat = new LinkedHashMap<>();
+            stat.put("size", partition.size.get());
+            stat.put("min", partition.min);
+            stat.put("max", partition.max == Long.MAX_VALUE ? 0 : partition.max);
+            stat.put("hits", partition.hits.get());
+            stat.put("misses", partition.misses.get());
+            stat.put("hitBytes", partition.hitBytes.get());
+            stats.put(e.getKey(), stat);
+        }
+        return stats;
+    }
+}
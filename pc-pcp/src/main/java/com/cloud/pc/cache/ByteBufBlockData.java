@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2025 Yangagile. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloud.pc.cache;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Block kept in a buffer the cache took over, normally from a pooled allocator. The
+ * buffer goes back to its pool once the cache and every reader released the block.
+ */
+public class ByteBufBlockData extends BlockData {
+    private final ByteBuf buf;
+
+    public ByteBufBlockData(ByteBuf buf) {
+        this.buf = buf;
+    }
+
+    @Override
+    public int size() {
+        return buf.readableBytes();
+    }
+
+    @Override
+    public long memorySize() {
+        return buf.capacity();
+    }
+
+    @Override
+    public ByteBuf content() {
+        return buf.duplicate();
+    }
+
+    @Override
+    protected void deallocate() {
+        buf.release();
+    }
+}
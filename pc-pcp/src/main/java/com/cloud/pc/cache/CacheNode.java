@@ -18,11 +18,12 @@ package com.cloud.pc.cache;
 
 public class CacheNode {
     public final String blockPath;
-    public final byte[] blockData;
+    public final BlockData blockData;
     final long timestamp;
     int freq;
+    int queue; // queue of the node in TinyLFUEvictionPolicy
     CacheNode pre, next; // 用于LRU链表
-    CacheNode(String blockPath, byte[] blockData) {
+    CacheNode(String blockPath, BlockData blockData) {
         this.blockPath = blockPath;
         this.blockData = blockData;
         this.timestamp = System.currentTimeMillis();
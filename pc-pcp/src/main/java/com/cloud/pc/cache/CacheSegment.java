@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2025 Yangagile. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloud.pc.cache;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * One independent part of the block cache with its own capacity share, eviction
+ * policy and lock.
+ */
+class CacheSegment {
+    // blocks kept by an eviction pass at most, blocks of other buckets for a bucket at its cap
+    // or blocks within the min share of their bucket, so a pass doesn't walk the whole policy
+    private static final int MAX_SKIPS = 64;
+
+    private volatile long capacity;
+    private final AtomicLong size = new AtomicLong(0);
+    private final IEvictionPolicy evictStrategy;
+    private final ConcurrentHashMap<String, CacheNode> cache;
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    // off-heap memory of the blocks, null for on-heap blocks
+    private final SlabArena arena;
+    // shared by the segments, the shares are of the whole cache
+    private final BucketPartitions partitions;
+
+    CacheSegment(long capacity, IEvictionPolicy strategy, SlabArena arena, BucketPartitions partitions) {
+        this.capacity = capacity;
+        this.evictStrategy = strategy;
+        this.arena = arena;
+        this.partitions = partitions;
+        this.cache = new ConcurrentHashMap<>();
+    }
+
+    // a smaller capacity evicts right away
+    void setCapacity(long capacity) {
+        evictionLock.lock();
+        try {
+            this.capacity = capacity;
+            evictTo(capacity, null);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    long capacity() {
+        return capacity;
+    }
+
+    // the data of the node isn't retained, it's read by acquireBlock
+    CacheNode getBlock(String blockPath) {
+        CacheNode node = cache.get(blockPath);
+        if (node != null) {
+            // ReentrantLock
+            evictionLock.lock();
+            try {
+                if (cache.get(blockPath) != node) {
+                    return null;
+                }
+                evictStrategy.access(node);
+            } finally {
+                evictionLock.unlock();
+            }
+            return node;
+        }
+        return null;
+    }
+
+    // get block data and retain it, the caller must release it after use
+    BlockData acquireBlock(String blockPath) {
+        CacheNode node = cache.get(blockPath);
+        if (node != null) {
+            evictionLock.lock();
+            try {
+                // the node may be evicted before the lock is taken
+                if (cache.get(blockPath) != node) {
+                    return null;
+                }
+                evictStrategy.access(node);
+                return (BlockData) node.blockData.retain();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+        return null;
+    }
+
+    boolean containsBlock(String blockPath) {
+        return cache.containsKey(blockPath);
+    }
+
+    // the array is kept without copy, it must not be changed afterwards
+    boolean putBlock(String blockPath, byte[] blockData) {
+        boolean offHeap = inArena(blockData.length);
+        long memorySize = offHeap ? arena.roundUp(blockData.length) : blockData.length;
+        return putBlock(blockPath, memorySize, () -> offHeap
+                ? SlabBlockData.create(arena, blockData) : new HeapBlockData(blockData));
+    }
+
+    // takes over the reference of the caller, the buffer is released if it's not cached
+    boolean putBlock(String blockPath, ByteBuf blockData) {
+        try {
+            boolean offHeap = inArena(blockData.readableBytes());
+            long memorySize = offHeap ? arena.roundUp(blockData.readableBytes()) : blockData.capacity();
+            return putBlock(blockPath, memorySize, () -> offHeap
+                    ? SlabBlockData.create(arena, blockData) : new ByteBufBlockData(blockData.retain()));
+        } finally {
+            blockData.release();
+        }
+    }
+
+    // the data is created once there is room for memory size, null if it can't be
+    private boolean putBlock(String blockPath, long memorySize, Supplier<BlockData> dataFactory) {
+        evictionLock.lock();
+        try {
+            // a bucket at its cap only makes room from its own blocks
+            if (partitions.overMax(blockPath, memorySize) && !evictBucket(blockPath, memorySize)) {
+                return false;
+            }
+            //if it's full, evict blocks
+            evictTo(capacity - memorySize, blockPath);
+
+            // add new
+            BlockData data = dataFactory.get();
+            if (data == null) {
+                return false;
+            }
+            CacheNode newNode = new CacheNode(blockPath, data);
+            CacheNode oldNode = cache.put(blockPath, newNode);
+
+            if (oldNode != null) {
+                // replace old
+                evictStrategy.remove(oldNode);
+                size.addAndGet(-oldNode.blockData.memorySize());
+                partitions.removed(blockPath, oldNode.blockData.memorySize());
+                oldNode.blockData.release();
+            }
+
+            evictStrategy.insert(newNode);
+            size.addAndGet(data.memorySize());
+            partitions.added(blockPath, data.memorySize());
+            return true;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    // a small block would waste most of a page, on heap it takes only its size
+    private boolean inArena(int size) {
+        return arena != null && size * 2L >= arena.getPageSize();
+    }
+
+    // runs with the lock held, blocks within the min share of their bucket are kept if possible
+    private void evictTo(long limit, String forPath) {
+        List<CacheNode> skipped = null;
+        while (size.get() > limit) {
+            CacheNode evictNode = evictStrategy.evict();
+            if (evictNode == null) {
+                break;
+            }
+            if (!partitions.canEvict(evictNode.blockPath, forPath)
+                    && (skipped == null || skipped.size() < MAX_SKIPS)) {
+                if (skipped == null) {
+                    skipped = new ArrayList<>();
+                }
+                skipped.add(evictNode);
+                continue;
+            }
+            drop(evictNode);
+        }
+        if (skipped != null) {
+            // the coldest go first if there isn't room without them
+            int kept = 0;
+            for (CacheNode node : skipped) {
+                if (size.get() > limit) {
+                    drop(node);
+                } else {
+                    skipped.set(kept++, node);
+                }
+            }
+            reinsertCold(skipped.subList(0, kept));
+        }
+    }
+
+    // the nodes were evicted coldest first, they go back in the same order at the cold end
+    private void reinsertCold(List<CacheNode> nodes) {
+        for (int i = nodes.size() - 1; i >= 0; i--) {
+            evictStrategy.reinsertCold(nodes.get(i));
+        }
+    }
+
+    // runs with the lock held, evict the coldest blocks of the bucket till it's under its cap
+    private boolean evictBucket(String blockPath, long memorySize) {
+        String bucket = BucketPartitions.bucketOf(blockPath);
+        List<CacheNode> skipped = new ArrayList<>();
+        while (partitions.overMax(blockPath, memorySize) && skipped.size() < MAX_SKIPS) {
+            CacheNode evictNode = evictStrategy.evict();
+            if (evictNode == null) {
+                break;
+            }
+            if (bucket.equals(BucketPartitions.bucketOf(evictNode.blockPath))) {
+                drop(evictNode);
+            } else {
+                skipped.add(evictNode);
+            }
+        }
+        reinsertCold(skipped);
+        return !partitions.overMax(blockPath, memorySize);
+    }
+
+    // the node is already out of the eviction policy
+    private void drop(CacheNode node) {
+        cache.remove(node.blockPath);
+        size.addAndGet(-node.blockData.memorySize());
+        partitions.removed(node.blockPath, node.blockData.memorySize());
+        node.blockData.release();
+    }
+
+    boolean removeBlock(String blockPath) {
+        evictionLock.lock();
+        try {
+            CacheNode node = cache.get(blockPath);
+            if (node != null) {
+                evictStrategy.remove(node);
+                drop(node);
+                return true;
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+        return false;
+    }
+
+    void clear() {
+        evictionLock.lock();
+        try {
+            for (CacheNode node : cache.values()) {
+                partitions.removed(node.blockPath, node.blockData.memorySize());
+                node.blockData.release();
+            }
+            cache.clear();
+            evictStrategy.clear();
+            size.set(0);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    Set<String> getCachedBlockPaths() {
+        return cache.keySet();
+    }
+
+    long size() {
+        return size.get();
+    }
+}
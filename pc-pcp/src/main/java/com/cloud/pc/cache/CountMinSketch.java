@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2025 Yangagile. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloud.pc.cache;
+
+import java.util.Arrays;
+
+/**
+ * Count-Min sketch estimating how often a block is accessed, counters saturate at 15. All
+ * counters are halved once the number of additions reaches the sample size or the
+ * decay period passed, so old popularity fades out.
+ */
+public class CountMinSketch {
+    private static final int DEPTH = 4;
+    private static final int MAX_COUNT = 15;
+    private static final int[] SEEDS = {0x97cb3127, 0x5bd1e995, 0x8ebc6af1, 0xc2b2ae35};
+
+    private final long decayPeriodMs;
+    private int[][] table;
+    private int mask;
+    private int sampleSize;
+    private int additions;
+    private long lastDecayTime;
+
+    public CountMinSketch(int expectedEntries, long decayPeriodMs) {
+        this.decayPeriodMs = decayPeriodMs;
+        this.lastDecayTime = System.currentTimeMillis();
+        resize(expectedEntries);
+    }
+
+    // grow the sketch if it holds many more entries than expected, counters are reset
+    public void ensureCapacity(int entries) {
+        if (entries > table[0].length) {
+            resize(entries);
+        }
+    }
+
+    public void increment(int hash) {
+        int h = spread(hash);
+        int min = estimate(h);
+        if (min < MAX_COUNT) {
+            // conservative update: only raise the smallest counters
+            for (int i = 0; i < DEPTH; i++) {
+                int index = indexOf(h, i);
+                if (table[i][index] == min) {
+                    table[i][index]++;
+                }
+            }
+        }
+        additions++;
+        if (additions >= sampleSize
+                || (decayPeriodMs > 0 && System.currentTimeMillis() - lastDecayTime > decayPeriodMs)) {
+            decay();
+        }
+    }
+
+    public int frequency(int hash) {
+        return estimate(spread(hash));
+    }
+
+    public void clear() {
+        for (int[] row : table) {
+            Arrays.fill(row, 0);
+        }
+        additions = 0;
+        lastDecayTime = System.currentTimeMillis();
+    }
+
+    void decay() {
+        for (int[] row : table) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] >>>= 1;
+            }
+        }
+        additions >>>= 1;
+        lastDecayTime = System.currentTimeMillis();
+    }
+
+    private int estimate(int h) {
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            min = Math.min(min, table[i][indexOf(h, i)]);
+        }
+        return min;
+    }
+
+    private int indexOf(int h, int i) {
+        int hash = (h + SEEDS[i]) * SEEDS[i];
+        hash += hash >>> 16;
+        return hash & mask;
+    }
+
+    private int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+
+    private void resize(int expectedEntries) {
+        int width = Integer.highestOneBit(Math.max(64, expectedEntries) - 1) << 1;
+        table = new int[DEPTH][width];
+        mask = width - 1;
+        sampleSize = 10 * width;
+        additions = 0;
+    }
+}
@@ -21,5 +21,7 @@ public interface IEvictionPolicy {
     void insert(CacheNode node);
     void remove(CacheNode node);
     CacheNode evict();
+    // put back a node evict() returned but that was kept, at the cold end and without counting an access
+    void reinsertCold(CacheNode node);
     void clear();
 }
\ No newline at end of file
@@ -51,8 +51,11 @@ public class LFUEvictionPolicy implements IEvictionPolicy {
     }
 
     public CacheNode evict() {
+        if (freqs.isEmpty()) {
+            return null;
+        }
         NodeList nodeList = freqs.get(minFreq);
-        while (nodeList == null && nodeList.isEmpty()) {
+        while (nodeList == null || nodeList.isEmpty()) {
             minFreq++;
             nodeList = freqs.get(minFreq);
         }
@@ -64,6 +67,13 @@ public class LFUEvictionPolicy implements IEvictionPolicy {
         }
         return node;
     }
+    public void reinsertCold(CacheNode node) {
+        freqs.putIfAbsent(node.freq, new NodeList());
+        freqs.get(node.freq).addLast(node);
+        if (minFreq > node.freq) {
+            minFreq = node.freq;
+        }
+    }
     public void clear() {
         freqs.clear();
         minFreq = 0;
@@ -73,8 +83,8 @@ public class LFUEvictionPolicy implements IEvictionPolicy {
         CacheNode head;
         CacheNode tail;
         public NodeList() {
-            head = new CacheNode(null, new byte[0]);
-            tail = new CacheNode(null, new byte[0]);
+            head = new CacheNode(null, null);
+            tail = new CacheNode(null, null);
             head.next = tail;
             tail.pre = head;
         }
@@ -88,6 +98,12 @@ public class LFUEvictionPolicy implements IEvictionPolicy {
             head.next.pre = node;
             head.next = node;
         }
+        public void addLast(CacheNode node) {
+            node.next = tail;
+            node.pre = tail.pre;
+            tail.pre.next = node;
+            tail.pre = node;
+        }
         public boolean isEmpty() {
             return head.next == tail;
         }
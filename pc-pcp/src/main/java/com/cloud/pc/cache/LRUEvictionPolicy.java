@@ -21,8 +21,8 @@ public class LRUEvictionPolicy implements IEvictionPolicy {
 
     public LRUEvictionPolicy () {
         // 初始化LRU链表
-        lruHead = new CacheNode(null, new byte[0]);
-        lruTail = new CacheNode(null, new byte[0]);
+        lruHead = new CacheNode(null, null);
+        lruTail = new CacheNode(null, null);
         lruHead.next = lruTail;
         lruTail.pre = lruHead;
     }
@@ -41,6 +41,12 @@ public class LRUEvictionPolicy implements IEvictionPolicy {
         node.pre.next = node.next;
         node.next.pre = node.pre;
     }
+    public void reinsertCold(CacheNode node) {
+        node.next = lruTail;
+        node.pre = lruTail.pre;
+        lruTail.pre.next = node;
+        lruTail.pre = node;
+    }
     public CacheNode evict() {
         CacheNode lruNode = lruTail.pre;
         if (lruNode != lruHead) {
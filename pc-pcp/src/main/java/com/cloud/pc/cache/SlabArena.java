@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2025 Yangagile. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloud.pc.cache;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Off-heap memory for the block cache. Direct memory is reserved in slabs which are
+ * carved into fixed-size pages, a block takes as many pages as it needs and the pages
+ * don't have to be contiguous. Slabs are reserved lazily, so a big cache only takes
+ * the memory it really uses.
+ */
+public class SlabArena {
+    private final int pageSize;
+    private final int pagesPerSlab;
+    private final int maxSlabs;
+    private final List<ByteBuffer> slabs = new ArrayList<>();
+    private int[] freePages;
+    private int freeCount;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    public SlabArena(long capacity, int slabSize, int pageSize) {
+        if (capacity <= 0 || slabSize <= 0 || pageSize <= 0 || slabSize % pageSize != 0) {
+            throw new IllegalArgumentException("invalid slab arena capacity:" + capacity
+                    + " slabSize:" + slabSize + " pageSize:" + pageSize);
+        }
+        this.pageSize = pageSize;
+        this.pagesPerSlab = slabSize / pageSize;
+        this.maxSlabs = (int) ((capacity + slabSize - 1) / slabSize);
+        this.freePages = new int[pagesPerSlab];
+        this.freeCount = 0;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    // memory taken by a block of the size, rounded up to pages
+    public long roundUp(int size) {
+        return (long) pageCount(size) * pageSize;
+    }
+
+    public long capacity() {
+        return (long) maxSlabs * pagesPerSlab * pageSize;
+    }
+
+    public long reserved() {
+        lock.lock();
+        try {
+            return (long) slabs.size() * pagesPerSlab * pageSize;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // returns the pages of the block, or null if the arena is full
+    public int[] allocate(int size) {
+        int count = pageCount(size);
+        lock.lock();
+        try {
+            while (freeCount < count && slabs.size() < maxSlabs) {
+                addSlab();
+            }
+            if (freeCount < count) {
+                return null;
+            }
+            int[] pages = new int[count];
+            for (int i = 0; i < count; i++) {
+                pages[i] = freePages[--freeCount];
+            }
+            return pages;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void free(int[] pages) {
+        lock.lock();
+        try {
+            for (int page : pages) {
+                freePages[freeCount++] = page;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void write(int[] pages, byte[] data, int offset, int length) {
+        int pos = 0;
+        for (int i = 0; i < pages.length && pos < length; i++) {
+            int len = Math.min(pageSize, length - pos);
+            ByteBuffer page = page(pages[i]);
+            page.put(data, offset + pos, len);
+            pos += len;
+        }
+    }
+
+    public void write(int[] pages, ByteBuf data) {
+        int pos = 0;
+        int length = data.readableBytes();
+        for (int i = 0; i < pages.length && pos < length; i++) {
+            int len = Math.min(pageSize, length - pos);
+            ByteBuffer page = page(pages[i]);
+            page.limit(len);
+            data.getBytes(data.readerIndex() + pos, page);
+            pos += len;
+        }
+    }
+
+    // wrap the pages of the block without copy
+    public ByteBuf wrap(int[] pages, int size) {
+        ByteBuffer[] buffers = new ByteBuffer[pages.length];
+        int pos = 0;
+        for (int i = 0; i < pages.length; i++) {
+            int len = Math.min(pageSize, size - pos);
+            ByteBuffer page = page(pages[i]);
+            page.limit(len);
+            buffers[i] = page;
+            pos += len;
+        }
+        return Unpooled.wrappedBuffer(buffers);
+    }
+
+    private int pageCount(int size) {
+        return Math.max(1, (size + pageSize - 1) / pageSize);
+    }
+
+    private ByteBuffer page(int page) {
+        ByteBuffer slab;
+        lock.lock();
+        try {
+            slab = slabs.get(page / pagesPerSlab);
+        } finally {
+            lock.unlock();
+        }
+        int pos = (page % pagesPerSlab) * pageSize;
+        ByteBuffer buffer = slab.duplicate();
+        buffer.position(pos);
+        buffer.limit(pos + pageSize);
+        return buffer.slice();
+    }
+
+    private void addSlab() {
+        int slabIndex = slabs.size();
+        slabs.add(ByteBuffer.allocateDirect(pagesPerSlab * pageSize));
+        // the free list must be able to hold every page of the arena
+        int totalPages = slabs.size() * pagesPerSlab;
+        if (freePages.length < totalPages) {
+            int[] newPages = new int[totalPages];
+            System.arraycopy(freePages, 0, newPages, 0, freeCount);
+            freePages = newPages;
+        }
+        // push in reverse order so the pages of a block are mostly contiguous
+        for (int i = pagesPerSlab - 1; i >= 0; i--) {
+            freePages[freeCount++] = slabIndex * pagesPerSlab + i;
+        }
+    }
+}
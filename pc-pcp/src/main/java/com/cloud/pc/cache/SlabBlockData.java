@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2025 Yangagile. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloud.pc.cache;
+
+import io.netty.buffer.ByteBuf;
+
+public class SlabBlockData extends BlockData {
+    private final SlabArena arena;
+    private final int[] pages;
+    private final int size;
+
+    private SlabBlockData(SlabArena arena, int[] pages, int size) {
+        this.arena = arena;
+        this.pages = pages;
+        this.size = size;
+    }
+
+    // copy the data into the arena, returns null if the arena is full
+    public static SlabBlockData create(SlabArena arena, byte[] data) {
+        int[] pages = arena.allocate(data.length);
+        if (pages == null) {
+            return null;
+        }
+        arena.write(pages, data, 0, data.length);
+        return new SlabBlockData(arena, pages, data.length);
+    }
+
+    // copy the data into the arena, returns null if the arena is full
+    public static SlabBlockData create(SlabArena arena, ByteBuf data) {
+        int[] pages = arena.allocate(data.readableBytes());
+        if (pages == null) {
+            return null;
+        }
+        arena.write(pages, data);
+        return new SlabBlockData(arena, pages, data.readableBytes());
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long memorySize() {
+        return (long) pages.length * arena.getPageSize();
+    }
+
+    @Override
+    public ByteBuf content() {
+        return arena.wrap(pages, size);
+    }
+
+    @Override
+    protected void deallocate() {
+        arena.free(pages);
+    }
+}
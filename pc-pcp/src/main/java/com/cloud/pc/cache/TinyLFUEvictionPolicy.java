@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2025 Yangagile. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloud.pc.cache;
+
+/**
+ * W-TinyLFU policy. New blocks enter a small LRU admission window, blocks leaving
+ * the window are only admitted into the main SLRU queues if the frequency sketch
+ * estimates them hotter than the main victim, so a one-pass scan can't flush the
+ * hot blocks.
+ */
+public class TinyLFUEvictionPolicy implements IEvictionPolicy {
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private final NodeQueue window = new NodeQueue();
+    private final NodeQueue probation = new NodeQueue();
+    private final NodeQueue protect = new NodeQueue();
+    private final CountMinSketch sketch;
+    private final int windowPercent;
+
+    public TinyLFUEvictionPolicy(int expectedEntries, int windowPercent, long decayPeriodMs) {
+        this.sketch = new CountMinSketch(expectedEntries, decayPeriodMs);
+        this.windowPercent = windowPercent;
+    }
+
+    public void access(CacheNode node) {
+        sketch.increment(node.blockPath.hashCode());
+        switch (node.queue) {
+            case WINDOW:
+                window.remove(node);
+                window.add(node);
+                break;
+            case PROBATION:
+                // a hit in probation promotes the node to protected
+                probation.remove(node);
+                node.queue = PROTECTED;
+                protect.add(node);
+                balanceProtected();
+                break;
+            case PROTECTED:
+                protect.remove(node);
+                protect.add(node);
+                break;
+        }
+    }
+
+    public void insert(CacheNode node) {
+        sketch.increment(node.blockPath.hashCode());
+        sketch.ensureCapacity(size() + 1);
+        node.queue = WINDOW;
+        window.add(node);
+    }
+
+    public void remove(CacheNode node) {
+        queueOf(node).remove(node);
+    }
+
+    public CacheNode evict() {
+        if (probation.isEmpty() && protect.isEmpty()) {
+            // main is still empty, the window overflow fills it without admission
+            while (window.count > windowSize()) {
+                CacheNode node = window.tail();
+                window.remove(node);
+                node.queue = PROBATION;
+                probation.add(node);
+            }
+        }
+        CacheNode candidate = window.count > windowSize() ? window.tail() : null;
+        CacheNode victim = probation.isEmpty() ? protect.tail() : probation.tail();
+        if (candidate == null) {
+            // the window is within its share, evict from main
+            if (victim == null) {
+                victim = window.tail();
+            }
+            if (victim != null) {
+                remove(victim);
+            }
+            return victim;
+        }
+        window.remove(candidate);
+
+        // admit the candidate only if it's hotter than the victim
+        if (victim != null && sketch.frequency(candidate.blockPath.hashCode())
+                > sketch.frequency(victim.blockPath.hashCode())) {
+            remove(victim);
+            candidate.queue = PROBATION;
+            probation.add(candidate);
+            return victim;
+        }
+        return candidate;
+    }
+
+    // the node goes back to the queue it was evicted from, the sketch isn't touched
+    public void reinsertCold(CacheNode node) {
+        queueOf(node).addLast(node);
+    }
+
+    public void clear() {
+        window.clear();
+        probation.clear();
+        protect.clear();
+        sketch.clear();
+    }
+
+    private int size() {
+        return window.count + probation.count + protect.count;
+    }
+
+    private int windowSize() {
+        return Math.max(1, size() * windowPercent / 100);
+    }
+
+    // protected takes at most 80% of the main queues
+    private void balanceProtected() {
+        int maxProtected = Math.max(1, (probation.count + protect.count) * 8 / 10);
+        while (protect.count > maxProtected && protect.count > 0) {
+            CacheNode node = protect.tail();
+            protect.remove(node);
+            node.queue = PROBATION;
+            probation.add(node);
+        }
+    }
+
+    private NodeQueue queueOf(CacheNode node) {
+        switch (node.queue) {
+            case PROBATION:
+                return probation;
+            case PROTECTED:
+                return protect;
+            default:
+                return window;
+        }
+    }
+
+    static class NodeQueue {
+        final CacheNode head;
+        final CacheNode tail;
+        int count;
+
+        NodeQueue() {
+            head = new CacheNode(null, null);
+            tail = new CacheNode(null, null);
+            head.next = tail;
+            tail.pre = head;
+        }
+
+        void add(CacheNode node) {
+            node.pre = head;
+            node.next = head.next;
+            head.next.pre = node;
+            head.next = node;
+            count++;
+        }
+
+        void addLast(CacheNode node) {
+            node.next = tail;
+            node.pre = tail.pre;
+            tail.pre.next = node;
+            tail.pre = node;
+            count++;
+        }
+
+        void remove(CacheNode node) {
+            node.pre.next = node.next;
+            node.next.pre = node.pre;
+            count--;
+        }
+
+        // the least recently used node
+        CacheNode tail() {
+            return tail.pre == head ? null : tail.pre;
+        }
+
+        boolean isEmpty() {
+            return count == 0;
+        }
+
+        void clear() {
+            head.next = tail;
+            tail.pre = head;
+            count = 0;
+        }
+    }
+}
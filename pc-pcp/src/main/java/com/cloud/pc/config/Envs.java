@@ -17,6 +17,11 @@
 package com.cloud.pc.config;
 
 import com.cloud.pc.utils.ComUtils;
+import com.cloud.pc.utils.FileUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 public class Envs {
     // http and service
@@ -29,25 +34,133 @@ public class Envs {
     public static String netWorkInterfaceName = ComUtils.getProps("pcp.network.interface.name",
             "", String::valueOf);
 
+    // transport, native epoll on linux with SO_REUSEPORT acceptors, NIO elsewhere
+    public static Boolean nativeTransport = ComUtils.getProps("pcp.transport.native",
+            true, Boolean::valueOf);
+    public static Integer acceptorCount = ComUtils.getProps("pcp.transport.acceptors",
+            4, Integer::valueOf);
+    public static Integer workerThreads = ComUtils.getProps("pcp.transport.worker.threads",
+            Runtime.getRuntime().availableProcessors() * 2, Integer::valueOf);
+    public static Boolean tcpNoDelay = ComUtils.getProps("pcp.tcp.nodelay",
+            true, Boolean::valueOf);
+    public static Boolean tcpQuickAck = ComUtils.getProps("pcp.tcp.quickack",
+            true, Boolean::valueOf);
+    // socket buffer sizes, 0 keeps the system default
+    public static Integer tcpRcvBuf = ComUtils.getProps("pcp.tcp.rcvbuf",
+            0, Integer::valueOf);
+    public static Integer tcpSndBuf = ComUtils.getProps("pcp.tcp.sndbuf",
+            0, Integer::valueOf);
+
     // auth
     public static String ak = ComUtils.getProps("pcp.ak",
             "pcp-admin", String::valueOf);
     public static String sk = ComUtils.getProps("pcp.sk",
             "5Nlx6ToTemI4gl5xvfr9ikGh5/Ou2vygvtdsgYYCESc=", String::valueOf);
 
-    // data
-    public static String dataDir = ComUtils.getProps("pcp.data.dir",
-            "/var/data", String::valueOf);
+    // data, a comma separated list of dirs with one dir on each disk, the index is kept in the first one
+    public static List<String> dataDirs = ComUtils.getProps("pcp.data.dir",
+            Collections.singletonList("/var/data"), v -> Arrays.asList(v.trim().split("\\s*,\\s*")));
+    public static String dataDir = dataDirs.get(0);
     public static int defaultBlockSize = ComUtils.getProps("pcp.block.size",
             5 * 1024 * 1024, Integer::valueOf);
     public static Long availableSize = ComUtils.getProps("pcp.available.size",
             10*1024*1024*1024L, Long::valueOf);
+    // disk usage is counted per time span slot of last access, blocks not accessed for
+    // span delete are deleted and expired from the index
     public static Long timeSpan = ComUtils.getProps("pcp.data.time.span",
             60*1000L, Long::valueOf);
     public static Long timeSpanDelete = ComUtils.getProps("pcp.data.time.span.delete",
             2*30*24*3600*1000L, Long::valueOf);
 
-    // thread pool
+    // index of the blocks on disk, checkpointed periodically and journaled in between
+    public static String diskIndexDir = ComUtils.getProps("pcp.disk.index.dir",
+            FileUtils.mergePath(dataDir, ".index"), String::valueOf);
+    public static Long diskIndexCheckpointPeriod = ComUtils.getProps("pcp.disk.index.checkpoint.period",
+            5*60*1000L, Long::valueOf);
+    // full scan of the data dir to reconcile the index, throttled to rate files per second
+    public static Long diskReconcileInterval = ComUtils.getProps("pcp.disk.reconcile.interval",
+            24*3600*1000L, Long::valueOf);
+    public static Long diskReconcileRate = ComUtils.getProps("pcp.disk.reconcile.rate",
+            5000L, Long::valueOf);
+
+    // disk eviction starts once the blocks take high percent of pcp.available.size and stops at low percent
+    public static Integer diskEvictHighPercent = ComUtils.getProps("pcp.disk.evict.high.percent",
+            90, Integer::valueOf);
+    public static Integer diskEvictLowPercent = ComUtils.getProps("pcp.disk.evict.low.percent",
+            80, Integer::valueOf);
+    public static Long diskEvictInterval = ComUtils.getProps("pcp.disk.evict.interval",
+            10*1000L, Long::valueOf);
+    // comma separated bucket:minPercent:maxPercent shares of pcp.available.size, a bucket keeps its blocks
+    // within its min share and is capped at its max share, 0 for no cap
+    public static String diskBucketShares = ComUtils.getProps("pcp.disk.bucket.shares",
+            "", String::valueOf);
+
+    // serve disk hits from memory mappings of the block files, up to mmap size mapped at once
+    public static Boolean diskMmapEnable = ComUtils.getProps("pcp.disk.mmap.enable",
+            false, Boolean::valueOf);
+    public static Long diskMmapSize = ComUtils.getProps("pcp.disk.mmap.size",
+            1024*1024*1024L, Long::valueOf);
+
+    // blocks up to block max are appended to segment files of segment size in .segments of each data dir,
+    // a sealed segment is compacted once its live blocks take less than compact percent of it
+    public static Boolean diskSegmentEnable = ComUtils.getProps("pcp.disk.segment.enable",
+            false, Boolean::valueOf);
+    public static Integer diskSegmentBlockMax = ComUtils.getProps("pcp.disk.segment.block.max",
+            128 * 1024, Integer::valueOf);
+    public static Long diskSegmentSize = ComUtils.getProps("pcp.disk.segment.size",
+            256*1024*1024L, Long::valueOf);
+    public static Integer diskSegmentCompactPercent = ComUtils.getProps("pcp.disk.segment.compact.percent",
+            50, Integer::valueOf);
+    public static Long diskSegmentCompactInterval = ComUtils.getProps("pcp.disk.segment.compact.interval",
+            60*1000L, Long::valueOf);
+
+    // blocks are written by a writer thread of each data dir in batches of up to batch blocks, a block
+    // fetched from remote isn't saved once queue size bytes are waiting to be written to its dir
+    public static Long diskWriterQueueSize = ComUtils.getProps("pcp.disk.writer.queue.size",
+            256*1024*1024L, Long::valueOf);
+    public static Integer diskWriterBatch = ComUtils.getProps("pcp.disk.writer.batch",
+            64, Integer::valueOf);
+
+    // read disk hits into the memory cache in background
+    public static Boolean diskPromoteMemory = ComUtils.getProps("pcp.disk.promote.memory",
+            true, Boolean::valueOf);
+    public static Integer diskPromoteQueueSize = ComUtils.getProps("pcp.disk.promote.queue.size",
+            256, Integer::valueOf);
+    // a block read in part goes to memory only after it's read in part admit count times
+    public static Integer partialAdmitCount = ComUtils.getProps("pcp.memory.partial.admit.count",
+            2, Integer::valueOf);
+
+    // streams of objects read block by block in order with gaps up to max gap, shared by read ahead
+    // and scan detection, the least recently read are dropped above count
+    public static Integer streamMaxGap = ComUtils.getProps("pcp.stream.max.gap",
+            16, Integer::valueOf);
+    public static Integer streamCount = ComUtils.getProps("pcp.stream.count",
+            4096, Integer::valueOf);
+
+    // read ahead, once trigger blocks of a stream are read in order, the next window blocks this PCP
+    // owns on the hash ring are fetched to disk and memory in background
+    public static Boolean readAheadEnable = ComUtils.getProps("pcp.readahead.enable",
+            true, Boolean::valueOf);
+    public static Integer readAheadWindow = ComUtils.getProps("pcp.readahead.window",
+            16, Integer::valueOf);
+    public static Integer readAheadTrigger = ComUtils.getProps("pcp.readahead.trigger",
+            2, Integer::valueOf);
+    public static Integer readAheadConcurrency = ComUtils.getProps("pcp.readahead.concurrency",
+            4, Integer::valueOf);
+
+    // scan detection, once min run blocks of a stream of an object of at least min blocks are read in order,
+    // its blocks are read by a scan. The mode of the bucket says if a block of a scan goes to memory:
+    // admit, bypass, or second to admit it once it's read again. Modes of buckets are comma separated bucket:mode
+    public static Long scanMinBlocks = ComUtils.getProps("pcp.scan.min.blocks",
+            64L, Long::valueOf);
+    public static Integer scanMinRun = ComUtils.getProps("pcp.scan.min.run",
+            4, Integer::valueOf);
+    public static String scanMode = ComUtils.getProps("pcp.scan.mode",
+            "second", String::valueOf);
+    public static String scanBucketModes = ComUtils.getProps("pcp.scan.bucket.modes",
+            "", String::valueOf);
+
+    // thread pool of each data dir
     public static Integer corePoolSize = ComUtils.getProps("pcp.thread.pool.size",
             16, Integer::valueOf);
     public static Integer maximumPoolSize = ComUtils.getProps("pcp.thread.max.pool.size",
@@ -57,9 +170,81 @@ public class Envs {
     public static Long keepAliveTime = ComUtils.getProps("pcp.thread.keep.alive.time",
             60L, Long::valueOf);
 
+    // pool of the requests fetched from remote, the fetches are async so it only sets them up
+    public static Integer remotePoolSize = ComUtils.getProps("pcp.remote.pool.size",
+            8, Integer::valueOf);
+    public static Integer remoteMaxPoolSize = ComUtils.getProps("pcp.remote.max.pool.size",
+            16, Integer::valueOf);
+    public static Integer remoteQueueSize = ComUtils.getProps("pcp.remote.queue.size",
+            4096, Integer::valueOf);
+
+    // streaming upload, reading from the socket pauses once the buffered body exceeds the size,
+    // and after a failed upload the rest of the body must arrive within the timeout for the retry
+    public static Integer putBufferSize = ComUtils.getProps("pcp.put.buffer.size",
+            4 * 1024 * 1024, Integer::valueOf);
+    public static Long putBodyTimeout = ComUtils.getProps("pcp.put.body.timeout",
+            60 * 1000L, Long::valueOf);
+
+    // write back, a block written with disk as the highest layer is acked once it's durable on local disk,
+    // and uploaded in background with up to concurrency uploads, retried with backoff from delay to max delay.
+    // Off by default: a multipart completion sent right after the acks fails with InvalidPart while parts
+    // are still owed, and the SDKs complete an upload only once
+    public static Boolean putWriteBack = ComUtils.getProps("pcp.put.write.back",
+            false, Boolean::valueOf);
+    public static Integer writeBackConcurrency = ComUtils.getProps("pcp.write.back.concurrency",
+            16, Integer::valueOf);
+    public static Integer writeBackMaxAttempts = ComUtils.getProps("pcp.write.back.max.attempts",
+            30, Integer::valueOf);
+    public static Long writeBackRetryDelay = ComUtils.getProps("pcp.write.back.retry.delay",
+            1000L, Long::valueOf);
+    public static Long writeBackMaxRetryDelay = ComUtils.getProps("pcp.write.back.retry.max.delay",
+            5*60*1000L, Long::valueOf);
+
+    // persistent connections, an idle connection is closed after the timeout in seconds and
+    // a connection is closed after serving max requests, 0 means no limit
+    public static Integer httpIdleTimeout = ComUtils.getProps("pcp.http.idle.timeout",
+            60, Integer::valueOf);
+    public static Integer httpMaxRequests = ComUtils.getProps("pcp.http.max.requests",
+            1000, Integer::valueOf);
+
     // block memory cache
     public static Long BlockCacheSize = ComUtils.getProps("pcp.block.cache.size",
             2*1024*1024*1024L, Long::valueOf);
+    public static Integer BlockCacheSegments = ComUtils.getProps("pcp.block.cache.segments",
+            16, Integer::valueOf);
+    // comma separated max block sizes of the size classes but the last, empty for a single class. each class
+    // starts with an equal share, every rebalance interval step percent of the capacity may move to the class
+    // with the most hits per byte, a class keeps at least min percent
+    public static long[] BlockCacheSizeClasses = ComUtils.getProps("pcp.block.cache.size.classes",
+            new long[0],
+            v -> v.trim().isEmpty() ? new long[0]
+                    : Arrays.stream(v.trim().split("\\s*,\\s*")).mapToLong(Long::parseLong).toArray());
+    public static Long BlockCacheRebalanceInterval = ComUtils.getProps("pcp.block.cache.rebalance.interval",
+            60*1000L, Long::valueOf);
+    public static Integer BlockCacheRebalanceStepPercent = ComUtils.getProps("pcp.block.cache.rebalance.step.percent",
+            2, Integer::valueOf);
+    public static Integer BlockCacheClassMinPercent = ComUtils.getProps("pcp.block.cache.class.min.percent",
+            10, Integer::valueOf);
+    // bucket:minPercent:maxPercent shares of the block cache, as pcp.disk.bucket.shares
+    public static String BlockCacheBucketShares = ComUtils.getProps("pcp.block.cache.bucket.shares",
+            "", String::valueOf);
+    // eviction policy of the block cache: lru, lfu or tinylfu
+    public static String BlockCachePolicy = ComUtils.getProps("pcp.block.cache.policy",
+            "lru", String::valueOf);
+    public static Integer TinyLfuWindowPercent = ComUtils.getProps("pcp.block.cache.tinylfu.window.percent",
+            1, Integer::valueOf);
+    public static Long TinyLfuDecayPeriod = ComUtils.getProps("pcp.block.cache.tinylfu.decay.period",
+            10*60*1000L, Long::valueOf);
+    public static Boolean BlockCacheOffHeap = ComUtils.getProps("pcp.block.cache.offheap",
+            false, Boolean::valueOf);
+    public static Integer BlockCacheSlabSize = ComUtils.getProps("pcp.block.cache.slab.size",
+            64*1024*1024, Integer::valueOf);
+    public static Integer BlockCachePageSize = ComUtils.getProps("pcp.block.cache.page.size",
+            64*1024, Integer::valueOf);
+    // blocks promoted from disk are read into pooled direct buffers the cache takes over, instead of heap
+    // arrays, the direct memory limit must leave room for the cache
+    public static Boolean BlockCachePooled = ComUtils.getProps("pcp.block.cache.pooled",
+            false, Boolean::valueOf);
 
     // log
     public static String logDir = ComUtils.getProps("pcp.log.dir",
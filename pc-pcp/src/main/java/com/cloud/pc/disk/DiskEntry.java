@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2025 Yangagile. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloud.pc.disk;
+
+/**
+ * A block of the disk tier. lastAccess is only kept in memory and in checkpoints,
+ * it's not worth a journal record on every hit, the reference bit only in memory.
+ */
+public class DiskEntry {
+    private final String path;
+    private final String location;
+    private final long size;
+    private final long crc;
+    private volatile long lastAccess;
+    // CLOCK reference bit, a new block gets a second chance too
+    private volatile boolean referenced = true;
+    // generation of the last reconciliation scan which saw the file
+    private volatile int mark;
+    // not uploaded to remote yet, the block can't be evicted
+    private volatile boolean pinned;
+
+    public DiskEntry(String path, String location, long size, long crc, long lastAccess) {
+        this.path = path;
+        this.location = location;
+        this.size = size;
+        this.crc = crc;
+        this.lastAccess = lastAccess;
+    }
+
+    // returns the previous access time
+    public long touch() {
+        long previous = lastAccess;
+        lastAccess = System.currentTimeMillis();
+        referenced = true;
+        return previous;
+    }
+
+    public boolean isReferenced() {
+        return referenced;
+    }
+
+    public void clearReferenced() {
+        referenced = false;
+    }
+
+    public int getMark() {
+        return mark;
+    }
+
+    public void setMark(int mark) {
+        this.mark = mark;
+    }
+
+    public boolean isPinned() {
+        return pinned;
+    }
+
+    public void setPinned(boolean pinned) {
+        this.pinned = pinned;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getLocation() {
+        return location;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    // CRC32 of the block, 0 if unknown
+    public long getCrc() {
+        return crc;
+    }
+
+    public long getLastAccess() {
+        return lastAccess;
+    }
+
+    @Override
+    public String toString() {
+        return path + "@" + location + " size:" + size + " crc:" + crc + " lastAccess:" + lastAccess;
+    }
+}
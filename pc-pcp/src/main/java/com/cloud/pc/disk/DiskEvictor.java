@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2025 Yangagile. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloud.pc.disk;
+
+import com.cloud.pc.cache.BucketPartitions;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the disk tier under its capacity. Once the indexed blocks go above the high
+ * watermark, blocks are evicted by CLOCK until they are under the low watermark. The
+ * hand moves over the index, a block read since the hand passed it gets a second chance.
+ * A run starts periodically and as soon as an add crosses the high watermark.
+ * Blocks of a bucket within its min share are passed over like the pinned ones, and a
+ * bucket above its max share loses its blocks even under the watermark.
+ */
+public class DiskEvictor {
+    private static final Logger LOG = LoggerFactory.getLogger(DiskEvictor.class);
+
+    private static volatile DiskEvictor instance;
+
+    private final DiskIndex index;
+    private final BucketPartitions partitions;
+    private final long highWatermark;
+    private final long lowWatermark;
+    private final ScheduledExecutorService executor =
+            Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("Evict-Thread"));
+    private final AtomicBoolean pending = new AtomicBoolean(false);
+    private final AtomicLong evictedCount = new AtomicLong();
+    private final AtomicLong evictedSize = new AtomicLong();
+    private Iterator<DiskEntry> hand;
+
+    public static DiskEvictor init(DiskIndex index, long capacity, int highPercent, int lowPercent,
+                                   BucketPartitions partitions) {
+        instance = new DiskEvictor(index, capacity, highPercent, lowPercent, partitions);
+        return instance;
+    }
+
+    public static DiskEvictor instance() {
+        return instance;
+    }
+
+    public DiskEvictor(DiskIndex index, long capacity, int highPercent, int lowPercent) {
+        this(index, capacity, highPercent, lowPercent, BucketPartitions.none());
+    }
+
+    // the bucket sizes are counted from the index, so it must be created before the index is loaded
+    public DiskEvictor(DiskIndex index, long capacity, int highPercent, int lowPercent,
+                       BucketPartitions partitions) {
+        if (lowPercent > highPercent) {
+            throw new IllegalArgumentException("invalid disk evict watermark high:" + highPercent
+                    + " low:" + lowPercent);
+        }
+        this.index = index;
+        this.highWatermark = capacity / 100 * highPercent;
+        this.lowWatermark = capacity / 100 * lowPercent;
+        this.partitions = partitions;
+        index.addListener(new DiskIndex.Listener() {
+            @Override
+            public void onAdd(DiskEntry entry) {
+                partitions.added(entry.getPath(), entry.getSize());
+            }
+
+            @Override
+            public void onRemove(DiskEntry entry) {
+                partitions.removed(entry.getPath(), entry.getSize());
+            }
+        });
+    }
+
+    public void start(long intervalMs) {
+        index.addListener(new DiskIndex.Listener() {
+            @Override
+            public void onAdd(DiskEntry entry) {
+                maybeEvict();
+            }
+        });
+        executor.scheduleWithFixedDelay(this::maybeEvict, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void maybeEvict() {
+        if (!overWatermark() || !pending.compareAndSet(false, true)) {
+            return;
+        }
+        executor.execute(() -> {
+            pending.set(false);
+            try {
+                evict();
+            } catch (RuntimeException e) {
+                LOG.error("exception to evict disk blocks", e);
+            }
+        });
+    }
+
+    // runs on the evict thread only
+    void evict() {
+        if (!overWatermark()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        long count = 0;
+        long size = 0;
+        // two full turns of the hand clear every reference bit, so a third finds a victim
+        long budget = 3L * index.count();
+        while ((index.size() > lowWatermark || partitions.anyOverMax()) && budget-- > 0) {
+            if (hand == null || !hand.hasNext()) {
+                hand = index.entries().iterator();
+                if (!hand.hasNext()) {
+                    break;
+                }
+            }
+            DiskEntry entry = hand.next();
+            if (entry.isPinned()) {
+                continue;
+            }
+            // under the watermark only the buckets above their max lose blocks
+            boolean overMax = partitions.overMax(entry.getPath(), 0);
+            if (!overMax && (index.size() <= lowWatermark || !partitions.canEvict(entry.getPath(), null))) {
+                continue;
+            }
+            if (entry.isReferenced()) {
+                entry.clearReferenced();
+                continue;
+            }
+            if (!index.evict(entry)) {
+                continue;
+            }
+            count++;
+            size += entry.getSize();
+        }
+        evictedCount.addAndGet(count);
+        evictedSize.addAndGet(size);
+        LOG.info("evicted {} disk blocks size:{} in {}ms, usage:{} watermark:{}/{}", count, size,
+                System.currentTimeMillis() - start, index.size(), lowWatermark, highWatermark);
+    }
+
+    private boolean overWatermark() {
+        return index.size() > highWatermark || partitions.anyOverMax();
+    }
+
+    public BucketPartitions getPartitions() {
+        return partitions;
+    }
+
+    public long getEvictedCount() {
+        return evictedCount.get();
+    }
+
+    public long getEvictedSize() {
+        return evictedSize.get();
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,493 @@
+/*
+ * Copyright (c) 2025 Yangagile. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloud.pc.disk;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory index of the blocks on local disk, so lookups and capacity accounting don't
+ * touch the filesystem. Changes are appended to a journal and the whole index is written
+ * to a checkpoint from time to time. At startup the checkpoint is loaded and the journal
+ * replayed over it, a torn record at the end of the journal is ignored. Files the index
+ * misses or lost are found by a reconciliation scan of the data dir.
+ */
+public class DiskIndex {
+    private static final Logger LOG = LoggerFactory.getLogger(DiskIndex.class);
+
+    private static final String CHECKPOINT_FILE = "index.ckpt";
+    private static final String JOURNAL_FILE = "index.journal";
+    private static final String OLD_JOURNAL_FILE = "index.journal.old";
+    private static final int VERSION = 1;
+    private static final byte OP_ADD = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final int PATH_LOCKS = 64;
+
+    private static DiskIndex instance;
+
+    private final Path indexDir;
+    private final Map<String, DiskEntry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong totalSize = new AtomicLong();
+    private final Object journalLock = new Object();
+    private final Object checkpointLock = new Object();
+    private DataOutputStream journal;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private volatile int generation = 0;
+    // blocks a writer is putting a new file in place for, they can't be evicted meanwhile
+    private final Map<String, Integer> publishing = new ConcurrentHashMap<>();
+    private final Object[] pathLocks = new Object[PATH_LOCKS];
+
+    /**
+     * Told about every change of the index. Calls for one entry don't overlap.
+     */
+    public interface Listener {
+        default void onAdd(DiskEntry entry) {
+        }
+
+        default void onRemove(DiskEntry entry) {
+        }
+
+        default void onAccess(DiskEntry entry, long previousAccess) {
+        }
+    }
+
+    public static synchronized DiskIndex init(String indexDir) {
+        if (instance == null) {
+            instance = new DiskIndex(Paths.get(indexDir));
+        }
+        return instance;
+    }
+
+    public static DiskIndex instance() {
+        return instance;
+    }
+
+    public DiskIndex(Path indexDir) {
+        this.indexDir = indexDir;
+        for (int i = 0; i < PATH_LOCKS; i++) {
+            pathLocks[i] = new Object();
+        }
+    }
+
+    // load the checkpoint and the journals, returns false if there was no index to load. An index
+    // which can't be read is set aside and the index starts empty, the reconciliation scan rebuilds it
+    public boolean load() throws IOException {
+        Files.createDirectories(indexDir);
+        boolean found;
+        long start = System.currentTimeMillis();
+        try {
+            found = loadCheckpoint();
+            found |= replay(indexDir.resolve(OLD_JOURNAL_FILE));
+            found |= replay(indexDir.resolve(JOURNAL_FILE));
+        } catch (IOException e) {
+            LOG.error("exception to load disk index from {}, start with an empty index", indexDir, e);
+            clear();
+            setAside(CHECKPOINT_FILE);
+            setAside(OLD_JOURNAL_FILE);
+            setAside(JOURNAL_FILE);
+            found = false;
+        }
+        openJournal();
+        LOG.info("loaded disk index from {} entries:{} size:{} in {}ms", indexDir, entries.size(),
+                totalSize.get(), System.currentTimeMillis() - start);
+        return found;
+    }
+
+    // lookup for a read, which counts as an access
+    public DiskEntry get(String path) {
+        DiskEntry entry = entries.get(path);
+        if (entry == null) {
+            return null;
+        }
+        synchronized (entry) {
+            if (entries.get(path) != entry) {
+                return null;
+            }
+            long previous = entry.touch();
+            for (Listener listener : listeners) {
+                listener.onAccess(entry, previous);
+            }
+        }
+        return entry;
+    }
+
+    public DiskEntry peek(String path) {
+        return entries.get(path);
+    }
+
+    public DiskEntry add(String path, String location, long size, long crc) {
+        return add(path, location, size, crc, System.currentTimeMillis());
+    }
+
+    // a pinned entry is pinned before anyone sees it, the evictor can't take it meanwhile
+    public DiskEntry add(String path, String location, long size, long crc, boolean pinned) {
+        return add(path, location, size, crc, System.currentTimeMillis(), pinned);
+    }
+
+    public DiskEntry add(String path, String location, long size, long crc, long lastAccess) {
+        return add(path, location, size, crc, lastAccess, false);
+    }
+
+    private DiskEntry add(String path, String location, long size, long crc, long lastAccess, boolean pinned) {
+        DiskEntry entry = new DiskEntry(path, location, size, crc, lastAccess);
+        entry.setMark(generation);
+        entry.setPinned(pinned);
+        synchronized (journalLock) {
+            putEntry(entry);
+            appendJournal(OP_ADD, entry);
+        }
+        return entry;
+    }
+
+    // point the block to a new copy if it's still the entry the caller saw, returns the new entry
+    public DiskEntry move(DiskEntry entry, String location) {
+        DiskEntry moved = new DiskEntry(entry.getPath(), location, entry.getSize(), entry.getCrc(),
+                entry.getLastAccess());
+        moved.setMark(entry.getMark());
+        synchronized (journalLock) {
+            if (entries.get(entry.getPath()) != entry) {
+                return null;
+            }
+            putEntry(moved);
+            appendJournal(OP_ADD, moved);
+        }
+        return moved;
+    }
+
+    // a writer is about to put a new file of the block in place, it's indexed before endPublish
+    public void beginPublish(String path) {
+        synchronized (pathLock(path)) {
+            publishing.merge(path, 1, Integer::sum);
+        }
+    }
+
+    public void endPublish(String path) {
+        publishing.computeIfPresent(path, (k, v) -> v == 1 ? null : v - 1);
+    }
+
+    /**
+     * Remove the entry and delete its block, returns false if it's not the entry of the block any
+     * more. A block being published isn't evicted, its new file may already have taken the location.
+     */
+    public boolean evict(DiskEntry entry) {
+        synchronized (pathLock(entry.getPath())) {
+            if (publishing.containsKey(entry.getPath()) || !remove(entry.getPath(), entry)) {
+                return false;
+            }
+            try {
+                SegmentStore.deleteBlock(entry);
+            } catch (IOException e) {
+                LOG.error("exception to delete block {}", entry, e);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Delete a file of the block that isn't its indexed location, returns false if the file is kept:
+     * the block isn't indexed, the file is its location or the block is being published and the
+     * file may be the new one.
+     */
+    public boolean deleteCopy(String path, Path file) throws IOException {
+        synchronized (pathLock(path)) {
+            DiskEntry entry = entries.get(path);
+            if (entry == null || publishing.containsKey(path) || isLocation(entry, file)) {
+                return false;
+            }
+            return Files.deleteIfExists(file);
+        }
+    }
+
+    public static boolean isLocation(DiskEntry entry, Path file) {
+        return !SegmentStore.isSegment(entry.getLocation()) && Paths.get(entry.getLocation())
+                .toAbsolutePath().normalize().equals(file.toAbsolutePath().normalize());
+    }
+
+    private Object pathLock(String path) {
+        return pathLocks[(path.hashCode() & 0x7fffffff) % PATH_LOCKS];
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    // start a reconciliation scan, entries added from now on count as seen by it
+    public int beginScan() {
+        return ++generation;
+    }
+
+    public DiskEntry remove(String path) {
+        synchronized (journalLock) {
+            DiskEntry entry = entries.remove(path);
+            if (entry != null) {
+                removed(entry);
+                appendJournal(OP_REMOVE, entry);
+            }
+            return entry;
+        }
+    }
+
+    // remove the entry only if it's still the one the caller saw
+    public boolean remove(String path, DiskEntry entry) {
+        synchronized (journalLock) {
+            if (!entries.remove(path, entry)) {
+                return false;
+            }
+            removed(entry);
+            appendJournal(OP_REMOVE, entry);
+            return true;
+        }
+    }
+
+    public boolean isIndexDir(Path dir) {
+        return dir.equals(indexDir);
+    }
+
+    // block path of a file under the data dir
+    public static String blockPath(Path root, Path file) {
+        return root.relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
+    public long size() {
+        return totalSize.get();
+    }
+
+    public int count() {
+        return entries.size();
+    }
+
+    public Collection<DiskEntry> entries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    // write the whole index and drop the journal it covers, changes made meanwhile go to a new journal
+    public void checkpoint() {
+        synchronized (checkpointLock) {
+            long start = System.currentTimeMillis();
+            try {
+                synchronized (journalLock) {
+                    closeJournal();
+                    try {
+                        rotateJournal();
+                    } finally {
+                        openJournal();
+                    }
+                }
+                Path tmp = indexDir.resolve(CHECKPOINT_FILE + ".tmp");
+                long count = 0;
+                long headerCount = entries.size();
+                try (FileOutputStream fos = new FileOutputStream(tmp.toFile());
+                     DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos))) {
+                    out.writeInt(VERSION);
+                    out.writeLong(headerCount);
+                    for (DiskEntry entry : entries.values()) {
+                        writeEntry(out, entry);
+                        count++;
+                    }
+                    out.flush();
+                    fos.getFD().sync();
+                }
+                if (count != headerCount) {
+                    // the index changed while writing, the count in the header must match the records
+                    rewriteCount(tmp, count);
+                }
+                Files.move(tmp, indexDir.resolve(CHECKPOINT_FILE),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                Files.deleteIfExists(indexDir.resolve(OLD_JOURNAL_FILE));
+                LOG.info("checkpoint disk index entries:{} in {}ms", count, System.currentTimeMillis() - start);
+            } catch (IOException e) {
+                LOG.error("exception to checkpoint disk index to {}", indexDir, e);
+            }
+        }
+    }
+
+    public void close() {
+        checkpoint();
+        synchronized (journalLock) {
+            closeJournal();
+        }
+    }
+
+    private void putEntry(DiskEntry entry) {
+        // a read can't see the entry before the listeners know it
+        synchronized (entry) {
+            DiskEntry old = entries.put(entry.getPath(), entry);
+            if (old != null) {
+                removed(old);
+            }
+            totalSize.addAndGet(entry.getSize());
+            for (Listener listener : listeners) {
+                listener.onAdd(entry);
+            }
+        }
+    }
+
+    private void removed(DiskEntry entry) {
+        totalSize.addAndGet(-entry.getSize());
+        synchronized (entry) {
+            for (Listener listener : listeners) {
+                listener.onRemove(entry);
+            }
+        }
+    }
+
+    private boolean loadCheckpoint() throws IOException {
+        Path checkpoint = indexDir.resolve(CHECKPOINT_FILE);
+        if (!Files.exists(checkpoint)) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(checkpoint)))) {
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("unknown index version " + version);
+            }
+            long count = in.readLong();
+            for (long i = 0; i < count; i++) {
+                DiskEntry entry = readEntry(in);
+                putEntry(entry);
+            }
+        }
+        return true;
+    }
+
+    private void clear() {
+        for (DiskEntry entry : entries.values()) {
+            if (entries.remove(entry.getPath(), entry)) {
+                removed(entry);
+            }
+        }
+    }
+
+    // keep a file of the index which can't be loaded for a look, in place of the last one kept
+    private void setAside(String name) throws IOException {
+        Path file = indexDir.resolve(name);
+        if (Files.exists(file)) {
+            Files.move(file, indexDir.resolve(name + ".bad"), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private boolean replay(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return false;
+        }
+        long records = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            while (true) {
+                byte op = in.readByte();
+                DiskEntry entry = readEntry(in);
+                if (op == OP_ADD) {
+                    putEntry(entry);
+                } else if (op == OP_REMOVE) {
+                    DiskEntry old = entries.remove(entry.getPath());
+                    if (old != null) {
+                        removed(old);
+                    }
+                } else {
+                    throw new EOFException("unknown op " + op);
+                }
+                records++;
+            }
+        } catch (EOFException e) {
+            // end of the journal, or a record torn by a crash
+        }
+        LOG.info("replayed {} records of {}", records, file);
+        return true;
+    }
+
+    // the old journal of a failed checkpoint isn't covered by any checkpoint yet, so it's appended to
+    private void rotateJournal() throws IOException {
+        Path journalFile = indexDir.resolve(JOURNAL_FILE);
+        Path oldJournal = indexDir.resolve(OLD_JOURNAL_FILE);
+        if (!Files.exists(journalFile)) {
+            return;
+        }
+        if (!Files.exists(oldJournal)) {
+            Files.move(journalFile, oldJournal);
+            return;
+        }
+        try (OutputStream out = Files.newOutputStream(oldJournal, StandardOpenOption.APPEND)) {
+            Files.copy(journalFile, out);
+        }
+        Files.delete(journalFile);
+    }
+
+    private void openJournal() throws IOException {
+        journal = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(indexDir.resolve(JOURNAL_FILE).toFile(), true)));
+    }
+
+    private void closeJournal() {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.close();
+        } catch (IOException e) {
+            LOG.error("exception to close journal of disk index {}", indexDir, e);
+        }
+        journal = null;
+    }
+
+    private void appendJournal(byte op, DiskEntry entry) {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.writeByte(op);
+            writeEntry(journal, entry);
+            journal.flush();
+        } catch (IOException e) {
+            // the next checkpoint has the change anyway
+            LOG.error("exception to append journal of disk index {} entry:{}", indexDir, entry, e);
+        }
+    }
+
+    private static void writeEntry(DataOutput out, DiskEntry entry) throws IOException {
+        out.writeUTF(entry.getPath());
+        out.writeUTF(entry.getLocation());
+        out.writeLong(entry.getSize());
+        out.writeLong(entry.getCrc());
+        out.writeLong(entry.getLastAccess());
+    }
+
+    private static DiskEntry readEntry(DataInput in) throws IOException {
+        String path = in.readUTF();
+        String location = in.readUTF();
+        long size = in.readLong();
+        long crc = in.readLong();
+        long lastAccess = in.readLong();
+        return new DiskEntry(path, location, size, crc, lastAccess);
+    }
+
+    private static void rewriteCount(Path file, long count) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(4);
+            raf.writeLong(count);
+            raf.getFD().sync();
+        }
+    }
+}
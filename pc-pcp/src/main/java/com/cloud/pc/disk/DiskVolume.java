@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2025 Yangagile. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloud.pc.disk;
+
+import com.cloud.pc.utils.FileUtils;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One data dir, normally the mount point of a disk. Blocks of the dir are read and written
+ * on its own bounded pool, so a slow or full disk only holds back its own requests.
+ */
+public class DiskVolume {
+    private final int id;
+    private final String dir;
+    // location of every block of the volume starts with the prefix
+    private final String prefix;
+    private final long seed;
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong usedSize = new AtomicLong();
+    private final AtomicLong fileCount = new AtomicLong();
+    private volatile long freeSpace;
+
+    public DiskVolume(int id, String dir, int poolSize, int maxPoolSize, int queueSize, long keepAliveTime) {
+        this.id = id;
+        this.dir = dir;
+        this.prefix = FileUtils.mergePath(dir, "");
+        this.seed = DiskVolumes.hash(dir, 0);
+        this.executor = new ThreadPoolExecutor(poolSize, maxPoolSize, keepAliveTime, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(queueSize), new DefaultThreadFactory("Disk-" + id + "-Thread"));
+        refresh();
+    }
+
+    public void refresh() {
+        freeSpace = new File(dir).getUsableSpace();
+    }
+
+    public String resolve(String blockPath) {
+        return FileUtils.mergePath(dir, blockPath);
+    }
+
+    public boolean contains(String location) {
+        return location.startsWith(prefix);
+    }
+
+    void added(long size, long count) {
+        usedSize.addAndGet(size);
+        fileCount.addAndGet(count);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getDir() {
+        return dir;
+    }
+
+    long getSeed() {
+        return seed;
+    }
+
+    public ThreadPoolExecutor getExecutor() {
+        return executor;
+    }
+
+    public long getUsedSize() {
+        return usedSize.get();
+    }
+
+    public long getFileCount() {
+        return fileCount.get();
+    }
+
+    public long getFreeSpace() {
+        return freeSpace;
+    }
+
+    public Map<String, Object> getUsage() {
+        Map<String, Object> usage = new LinkedHashMap<>();
+        usage.put("dir", dir);
+        usage.put("usedSize", usedSize.get());
+        usage.put("fileCount", fileCount.get());
+        usage.put("freeSpace", freeSpace);
+        usage.put("activeThreads", executor.getActiveCount());
+        usage.put("queued", executor.getQueue().size());
+        return usage;
+    }
+
+    @Override
+    public String toString() {
+        return "DiskVolume{" + id + ":" + dir + " used:" + usedSize.get() + " count:" + fileCount.get()
+                + " free:" + freeSpace + "}";
+    }
+}
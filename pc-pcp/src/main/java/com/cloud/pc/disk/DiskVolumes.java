@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2025 Yangagile. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloud.pc.disk;
+
+import com.cloud.pc.utils.JsonUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * The data dirs of the disk tier. A new block is placed by weighted rendezvous hashing,
+ * every volume scores the block with a hash weighted by its free space and the highest
+ * score wins. A block keeps its volume while the free space is balanced, and adding or
+ * removing a dir only moves the blocks placed on it.
+ */
+public class DiskVolumes implements DiskIndex.Listener {
+    private static final Logger LOG = LoggerFactory.getLogger(DiskVolumes.class);
+
+    private static DiskVolumes instance;
+
+    private final List<DiskVolume> volumes;
+
+    public static synchronized DiskVolumes init(List<String> dirs, int poolSize, int maxPoolSize,
+                                                int queueSize, long keepAliveTime) {
+        instance = new DiskVolumes(dirs, poolSize, maxPoolSize, queueSize, keepAliveTime);
+        return instance;
+    }
+
+    public static DiskVolumes instance() {
+        return instance;
+    }
+
+    public DiskVolumes(List<String> dirs, int poolSize, int maxPoolSize, int queueSize, long keepAliveTime) {
+        if (dirs.isEmpty()) {
+            throw new IllegalArgumentException("no data dir");
+        }
+        List<DiskVolume> list = new ArrayList<>();
+        for (String dir : dirs) {
+            list.add(new DiskVolume(list.size(), dir, poolSize, maxPoolSize, queueSize, keepAliveTime));
+        }
+        volumes = Collections.unmodifiableList(list);
+        LOG.info("disk volumes: {}", volumes);
+    }
+
+    public List<DiskVolume> getVolumes() {
+        return volumes;
+    }
+
+    // volume for a new copy of the block
+    public DiskVolume place(String blockPath) {
+        if (volumes.size() == 1) {
+            return volumes.get(0);
+        }
+        long hash = hash(blockPath, 0);
+        DiskVolume best = null;
+        double bestScore = 0;
+        for (DiskVolume volume : volumes) {
+            // score = weight / -ln(u) for u uniform in (0, 1) gives every volume its share of the weight
+            double u = ((mix(hash ^ volume.getSeed()) >>> 11) + 1) / (double) ((1L << 53) + 1);
+            double score = Math.max(volume.getFreeSpace(), 1) / -Math.log(u);
+            if (best == null || score > bestScore) {
+                best = volume;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    // volume of an indexed block, null if the location isn't in any data dir
+    public DiskVolume volumeOf(String location) {
+        if (SegmentStore.isSegment(location)) {
+            location = SegmentStore.slot(location).getFile();
+        }
+        for (DiskVolume volume : volumes) {
+            if (volume.contains(location)) {
+                return volume;
+            }
+        }
+        return null;
+    }
+
+    public String localFile(String blockPath) {
+        return place(blockPath).resolve(blockPath);
+    }
+
+    // pool of the volume the block is read from or written to
+    public ExecutorService executorFor(String blockPath, String localFile) {
+        DiskEntry entry = DiskIndex.instance() == null ? null : DiskIndex.instance().peek(blockPath);
+        DiskVolume volume = volumeOf(entry != null ? entry.getLocation() : localFile);
+        return (volume != null ? volume : place(blockPath)).getExecutor();
+    }
+
+    public void refresh() {
+        for (DiskVolume volume : volumes) {
+            volume.refresh();
+        }
+    }
+
+    @Override
+    public void onAdd(DiskEntry entry) {
+        DiskVolume volume = volumeOf(entry.getLocation());
+        if (volume != null) {
+            volume.added(entry.getSize(), 1);
+        }
+    }
+
+    @Override
+    public void onRemove(DiskEntry entry) {
+        DiskVolume volume = volumeOf(entry.getLocation());
+        if (volume != null) {
+            volume.added(-entry.getSize(), -1);
+        }
+    }
+
+    public String getUsageInfo() {
+        List<Map<String, Object>> usage = new ArrayList<>();
+        for (DiskVolume volume : volumes) {
+            usage.add(volume.getUsage());
+        }
+        try {
+            return JsonUtils.toJson(usage);
+        } catch (Exception e) {
+            LOG.error("exception to format disk usage", e);
+            return null;
+        }
+    }
+
+    public void shutdown() {
+        for (DiskVolume volume : volumes) {
+            volume.getExecutor().shutdown();
+        }
+    }
+
+    static long hash(String s, long seed) {
+        long h = 0xcbf29ce484222325L ^ seed;
+        for (byte b : s.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    // finalizer of splitmix64, spreads the bits of the hash
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
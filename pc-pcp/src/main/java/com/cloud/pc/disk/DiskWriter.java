@@ -0,0 +1,329 @@
+/*
+ * Copyright (c) 2025 Yangagile. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloud.pc.disk;
+
+import com.cloud.pc.utils.FileUtils;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes block files off the request threads, one writer thread for each data dir. A block
+ * is written to a temp file next to its file and published by an atomic rename, so readers
+ * and the reconciliation scan never see a half-written block. The writes queued when the
+ * writer wakes up are committed as one batch, the files which must be durable are synced
+ * one after another and their dirs once for the batch. The blocks queued for a dir are
+ * bounded in bytes, a cache fill is dropped once the dir is that far behind. A fill small
+ * enough for the segment store is appended to a segment by the writer instead, the segments
+ * of the batch are synced once before its appends are indexed.
+ */
+public class DiskWriter {
+    private static final Logger LOG = LoggerFactory.getLogger(DiskWriter.class);
+
+    public static final String TEMP_SUFFIX = ".writing";
+
+    private static DiskWriter instance;
+    private static final AtomicLong tempId = new AtomicLong();
+
+    private final DiskIndex index;
+    private final DiskVolumes volumes;
+    private final long maxQueueSize;
+    private final int maxBatch;
+    private final List<Lane> lanes = new ArrayList<>();
+    // blocks queued to be written, readable until they are indexed
+    private final Map<String, Write> pending = new ConcurrentHashMap<>();
+    private final AtomicLong writeCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong syncCount = new AtomicLong();
+    private volatile boolean stopped = false;
+
+    private static class Write {
+        private final String blockPath;
+        private final String temp;
+        private final String file;
+        // null if the caller wrote the temp file
+        private final byte[] data;
+        private final long size;
+        private final long crc;
+        private final boolean sync;
+        private final boolean pinned;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private Exception error;
+        // a cache fill of a block indexed meanwhile, it's not written
+        private boolean skipped;
+        // appended to a segment, which indexed it
+        private boolean inSegment;
+        // the file is put in place and not indexed yet
+        private boolean publishing;
+
+        Write(String blockPath, String temp, String file, byte[] data, long size, long crc, boolean sync,
+              boolean pinned) {
+            this.blockPath = blockPath;
+            this.temp = temp;
+            this.file = file;
+            this.data = data;
+            this.size = size;
+            this.crc = crc;
+            this.sync = sync;
+            this.pinned = pinned;
+        }
+    }
+
+    private class Lane implements Runnable {
+        private final LinkedBlockingQueue<Write> queue = new LinkedBlockingQueue<>();
+        private final AtomicLong queuedSize = new AtomicLong();
+
+        @Override
+        public void run() {
+            List<Write> batch = new ArrayList<>();
+            while (!stopped) {
+                try {
+                    Write first = queue.poll(1, TimeUnit.SECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    queue.drainTo(batch, maxBatch - 1);
+                    commit(batch);
+                } catch (InterruptedException e) {
+                    break;
+                } catch (RuntimeException e) {
+                    LOG.error("exception to write disk blocks", e);
+                } finally {
+                    for (Write write : batch) {
+                        done(this, write);
+                    }
+                    batch.clear();
+                }
+            }
+        }
+    }
+
+    public static synchronized DiskWriter init(DiskIndex index, DiskVolumes volumes, long maxQueueSize, int maxBatch) {
+        if (instance == null) {
+            instance = new DiskWriter(index, volumes, maxQueueSize, maxBatch);
+        }
+        return instance;
+    }
+
+    public static DiskWriter instance() {
+        return instance;
+    }
+
+    public DiskWriter(DiskIndex index, DiskVolumes volumes, long maxQueueSize, int maxBatch) {
+        if (maxQueueSize <= 0 || maxBatch <= 0) {
+            throw new IllegalArgumentException("invalid disk writer maxQueueSize:" + maxQueueSize
+                    + " maxBatch:" + maxBatch);
+        }
+        this.index = index;
+        this.volumes = volumes;
+        this.maxQueueSize = maxQueueSize;
+        this.maxBatch = maxBatch;
+        for (DiskVolume volume : volumes.getVolumes()) {
+            Lane lane = new Lane();
+            lanes.add(lane);
+            ThreadFactory factory = new DefaultThreadFactory("Writer-" + volume.getId() + "-Thread", true);
+            factory.newThread(lane).start();
+        }
+    }
+
+    // a temp file of its own for each writer of the file
+    public static String tempFile(String file) {
+        return file + "." + tempId.incrementAndGet() + TEMP_SUFFIX;
+    }
+
+    public static boolean isTempFile(Path file) {
+        return file.getFileName().toString().endsWith(TEMP_SUFFIX);
+    }
+
+    // queue a block to be saved and indexed, false if its dir is too far behind and it's not saved
+    public boolean write(String blockPath, String file, byte[] data, long crc) {
+        Lane lane = laneOf(file);
+        long queued = lane.queuedSize.addAndGet(data.length);
+        if (queued > maxQueueSize && queued > data.length) {
+            lane.queuedSize.addAndGet(-data.length);
+            droppedCount.incrementAndGet();
+            LOG.debug("drop write of block {} size:{}, {} bytes queued", blockPath, data.length, queued);
+            return false;
+        }
+        Write write = new Write(blockPath, tempFile(file), file, data, data.length, crc, false, false);
+        pending.put(blockPath, write);
+        lane.queue.add(write);
+        return true;
+    }
+
+    // publish a temp file written by the caller, completes once the block is indexed, and durable if sync.
+    // A pinned block is indexed pinned, so it can't be evicted before its owner unpins it
+    public CompletableFuture<Void> publish(String blockPath, String temp, String file, long size, long crc,
+                                           boolean sync, boolean pinned) {
+        Write write = new Write(blockPath, temp, file, null, size, crc, sync, pinned);
+        laneOf(file).queue.add(write);
+        return write.future;
+    }
+
+    // data of the block if it's queued to be written
+    public byte[] pendingData(String blockPath) {
+        Write write = pending.get(blockPath);
+        return write == null ? null : write.data;
+    }
+
+    public long getWriteCount() {
+        return writeCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    public long getSyncCount() {
+        return syncCount.get();
+    }
+
+    public void shutdown() {
+        stopped = true;
+    }
+
+    private void commit(List<Write> batch) {
+        Set<Path> dirs = new LinkedHashSet<>();
+        List<Write> segmentWrites = new ArrayList<>();
+        List<SegmentStore.Append> appends = new ArrayList<>();
+        for (Write write : batch) {
+            Path file = Paths.get(write.file);
+            try {
+                if (write.data != null) {
+                    // an upload or another fill got there first, a fill mustn't replace what it wrote
+                    if (index.peek(write.blockPath) != null) {
+                        write.skipped = true;
+                        continue;
+                    }
+                    SegmentStore segments = SegmentStore.instance();
+                    if (segments != null && segments.accepts(write.data.length)) {
+                        appends.add(segments.append(write.blockPath, write.data, 0, write.data.length,
+                                write.crc));
+                        segmentWrites.add(write);
+                        write.inSegment = true;
+                        continue;
+                    }
+                    writeTemp(write);
+                } else if (write.sync) {
+                    try (FileChannel channel = FileChannel.open(Paths.get(write.temp), StandardOpenOption.WRITE)) {
+                        channel.force(true);
+                    }
+                }
+                // replacing keeps the old file readable by whoever has it open or mapped
+                index.beginPublish(write.blockPath);
+                write.publishing = true;
+                Files.move(Paths.get(write.temp), file, StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+                if (write.sync) {
+                    dirs.add(file.getParent());
+                }
+            } catch (IOException | RuntimeException e) {
+                LOG.error("exception to write block {} to {}", write.blockPath, write.file, e);
+                write.error = e;
+                try {
+                    Files.deleteIfExists(Paths.get(write.temp));
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        // the renames of the batch are durable once their dirs are synced
+        for (Path dir : dirs) {
+            FileUtils.syncDir(dir);
+        }
+        if (!appends.isEmpty()) {
+            try {
+                SegmentStore.instance().commit(appends);
+            } catch (IOException | RuntimeException e) {
+                LOG.error("exception to commit {} blocks to segments", appends.size(), e);
+                for (Write write : segmentWrites) {
+                    write.error = e;
+                }
+            }
+        }
+        batchCount.incrementAndGet();
+        syncCount.addAndGet(dirs.size());
+        for (Write write : batch) {
+            if (write.error == null && !write.skipped) {
+                if (!write.inSegment) {
+                    index.add(write.blockPath, write.file, write.size, write.crc, write.pinned);
+                }
+                writeCount.incrementAndGet();
+            }
+        }
+    }
+
+    private void writeTemp(Write write) throws IOException {
+        Path temp = Paths.get(write.temp);
+        FileUtils.mkParentDir(temp);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(write.data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (write.sync) {
+                channel.force(true);
+            }
+        }
+    }
+
+    private void done(Lane lane, Write write) {
+        if (write.publishing) {
+            index.endPublish(write.blockPath);
+        }
+        if (write.data != null) {
+            pending.remove(write.blockPath, write);
+            lane.queuedSize.addAndGet(-write.data.length);
+        }
+        if (write.error != null) {
+            write.future.completeExceptionally(write.error);
+        } else {
+            write.future.complete(null);
+        }
+    }
+
+    private Lane laneOf(String file) {
+        DiskVolume volume = volumes.volumeOf(file);
+        return lanes.get(volume != null ? volume.getId() : 0);
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2025 Yangagile. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloud.pc.disk;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.AbstractReferenceCounted;
+import io.netty.util.ReferenceCounted;
+import io.netty.util.internal.PlatformDependent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads disk tier blocks through memory mappings, so a hit is served from the page cache
+ * without a copy into the heap. The mappings are kept in an LRU bounded by the mapped
+ * size. A mapping is refcounted, the LRU holds one reference and every response one, and
+ * it's unmapped as soon as the last one is released, instead of whenever the GC runs.
+ */
+public class MappedBlockReader implements DiskIndex.Listener {
+    private static final Logger LOG = LoggerFactory.getLogger(MappedBlockReader.class);
+
+    private static MappedBlockReader instance;
+
+    private final long capacity;
+    private final LinkedHashMap<String, MappedBlock> mappings = new LinkedHashMap<>(16, 0.75f, true);
+    private long mappedSize;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong mapCount = new AtomicLong();
+
+    /**
+     * A mapped block file, unmapped once released by the LRU and every response.
+     */
+    public static class MappedBlock extends AbstractReferenceCounted {
+        private final String location;
+        private final MappedByteBuffer buffer;
+
+        MappedBlock(String location, MappedByteBuffer buffer) {
+            this.location = location;
+            this.buffer = buffer;
+        }
+
+        // the whole block without copy, valid until the block is released
+        public ByteBuf content() {
+            return Unpooled.wrappedBuffer(buffer.duplicate());
+        }
+
+        public int size() {
+            return buffer.capacity();
+        }
+
+        @Override
+        protected void deallocate() {
+            PlatformDependent.freeDirectBuffer(buffer);
+        }
+
+        @Override
+        public ReferenceCounted touch(Object hint) {
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return "MappedBlock{" + location + " size:" + buffer.capacity() + "}";
+        }
+    }
+
+    public static synchronized MappedBlockReader init(DiskIndex index, long capacity) {
+        if (instance == null) {
+            instance = new MappedBlockReader(capacity);
+            index.addListener(instance);
+        }
+        return instance;
+    }
+
+    // null if disk blocks aren't read by mapping
+    public static MappedBlockReader instance() {
+        return instance;
+    }
+
+    public MappedBlockReader(long capacity) {
+        this.capacity = capacity;
+    }
+
+    // the mapping of the block retained for the caller, null if it can't be mapped
+    public MappedBlock acquire(DiskEntry entry) {
+        synchronized (this) {
+            MappedBlock block = mappings.get(entry.getLocation());
+            if (block != null) {
+                hitCount.incrementAndGet();
+                block.retain();
+                return block;
+            }
+        }
+        if (entry.getSize() <= 0 || entry.getSize() > Integer.MAX_VALUE) {
+            return null;
+        }
+        // a block in a segment is mapped from its slot
+        boolean inSegment = SegmentStore.isSegment(entry.getLocation());
+        String file = entry.getLocation();
+        long position = 0;
+        if (inSegment) {
+            SegmentStore.Slot slot = SegmentStore.slot(entry.getLocation());
+            file = slot.getFile();
+            position = slot.getOffset();
+        }
+        MappedBlock block;
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            if (inSegment ? channel.size() < position + entry.getSize() : channel.size() != entry.getSize()) {
+                LOG.warn("size of block {} is {} on disk", entry, channel.size());
+                return null;
+            }
+            block = new MappedBlock(entry.getLocation(),
+                    channel.map(FileChannel.MapMode.READ_ONLY, position, entry.getSize()));
+        } catch (IOException e) {
+            LOG.warn("failed to map block {}", entry, e);
+            return null;
+        }
+        mapCount.incrementAndGet();
+        synchronized (this) {
+            MappedBlock existing = mappings.get(entry.getLocation());
+            if (existing != null) {
+                // mapped by another request meanwhile
+                block.release();
+                existing.retain();
+                return existing;
+            }
+            DiskIndex index = DiskIndex.instance();
+            if (index != null && index.peek(entry.getPath()) != entry) {
+                // removed meanwhile, the mapping is only for the caller
+                return block;
+            }
+            block.retain();
+            mappings.put(entry.getLocation(), block);
+            mappedSize += block.size();
+            Iterator<MappedBlock> it = mappings.values().iterator();
+            while (mappedSize > capacity && mappings.size() > 1 && it.hasNext()) {
+                MappedBlock eldest = it.next();
+                it.remove();
+                mappedSize -= eldest.size();
+                eldest.release();
+            }
+        }
+        return block;
+    }
+
+    // the file is evicted or replaced, new reads must not see the old mapping
+    @Override
+    public void onRemove(DiskEntry entry) {
+        invalidate(entry.getLocation());
+    }
+
+    public void invalidate(String location) {
+        MappedBlock block;
+        synchronized (this) {
+            block = mappings.remove(location);
+            if (block == null) {
+                return;
+            }
+            mappedSize -= block.size();
+        }
+        block.release();
+    }
+
+    public synchronized long getMappedSize() {
+        return mappedSize;
+    }
+
+    public synchronized int getMappedCount() {
+        return mappings.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMapCount() {
+        return mapCount.get();
+    }
+
+    public void clear() {
+        Map<String, MappedBlock> old;
+        synchronized (this) {
+            old = new LinkedHashMap<>(mappings);
+            mappings.clear();
+            mappedSize = 0;
+        }
+        for (MappedBlock block : old.values()) {
+            block.release();
+        }
+    }
+}
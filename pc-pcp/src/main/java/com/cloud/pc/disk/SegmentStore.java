@@ -0,0 +1,508 @@
+/*
+ * Copyright (c) 2025 Yangagile. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloud.pc.disk;
+
+import com.cloud.pc.utils.FileUtils;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps small blocks in large segment files instead of a file each, so millions of small
+ * objects don't take millions of inodes and dirs. A block is appended to the open segment
+ * of its data dir, and its index location points to the slot in the segment once the append
+ * is synced, so the index never points at a slot the disk may not have. A segment is
+ * preallocated when it's created and sealed once full. Evicted blocks leave dead bytes in
+ * the sealed segments, a segment with few live bytes is compacted by moving the live blocks
+ * to the open segment, and deleted once nothing in the index points to it any more.
+ */
+public class SegmentStore implements DiskIndex.Listener {
+    private static final Logger LOG = LoggerFactory.getLogger(SegmentStore.class);
+
+    public static final String SEGMENT_DIR = ".segments";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    // location of a block in a segment: segment:<file>#<offset>+<length>
+    private static final String LOCATION_PREFIX = "segment:";
+
+    private static SegmentStore instance;
+
+    private final DiskIndex index;
+    private final DiskVolumes volumes;
+    private final int maxBlockSize;
+    private final long segmentSize;
+    private final int compactPercent;
+    private final Map<String, Segment> segments = new ConcurrentHashMap<>();
+    // open segment of each volume, guarded by the lock of the volume, so a slow disk only holds up its own appends
+    private final Map<Integer, Segment> openSegments = new ConcurrentHashMap<>();
+    private final Object[] volumeLocks;
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final AtomicLong appendCount = new AtomicLong();
+    private final AtomicLong compactCount = new AtomicLong();
+    private final AtomicLong movedSize = new AtomicLong();
+    private final ScheduledExecutorService executor =
+            Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("Compact-Thread"));
+
+    /**
+     * Slot of a block in a segment file.
+     */
+    public static class Slot {
+        private final String file;
+        private final long offset;
+        private final int length;
+
+        Slot(String file, long offset, int length) {
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public String getFile() {
+            return file;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public int getLength() {
+            return length;
+        }
+    }
+
+    /**
+     * A block appended to a segment but not indexed yet, the segment can't be compacted or
+     * deleted till the append is committed.
+     */
+    public static class Append {
+        private final Segment segment;
+        private final String blockPath;
+        private final String location;
+        private final int length;
+        private final long crc;
+
+        Append(Segment segment, String blockPath, String location, int length, long crc) {
+            this.segment = segment;
+            this.blockPath = blockPath;
+            this.location = location;
+            this.length = length;
+            this.crc = crc;
+        }
+
+        public String getLocation() {
+            return location;
+        }
+    }
+
+    static class Segment {
+        private final String file;
+        private final int volume;
+        // blocks of the index in the segment
+        private final Map<String, DiskEntry> live = new ConcurrentHashMap<>();
+        private final AtomicLong liveSize = new AtomicLong();
+        // appends not in the index yet, the segment can't be compacted or deleted meanwhile
+        private final AtomicInteger writers = new AtomicInteger();
+        private FileChannel channel;
+        private long writePos;
+        private volatile boolean sealed;
+
+        Segment(String file, int volume) {
+            this.file = file;
+            this.volume = volume;
+        }
+
+        long usedSize() {
+            try {
+                return sealed ? Files.size(Paths.get(file)) : writePos;
+            } catch (IOException e) {
+                return 0;
+            }
+        }
+    }
+
+    public static synchronized SegmentStore init(DiskIndex index, DiskVolumes volumes, int maxBlockSize,
+                                                 long segmentSize, int compactPercent) {
+        if (instance == null) {
+            instance = new SegmentStore(index, volumes, maxBlockSize, segmentSize, compactPercent);
+            index.addListener(instance);
+        }
+        return instance;
+    }
+
+    // null if every block is a file of its own
+    public static SegmentStore instance() {
+        return instance;
+    }
+
+    public SegmentStore(DiskIndex index, DiskVolumes volumes, int maxBlockSize, long segmentSize, int compactPercent) {
+        if (maxBlockSize <= 0 || segmentSize < maxBlockSize || compactPercent < 0 || compactPercent > 100) {
+            throw new IllegalArgumentException("invalid segment store maxBlockSize:" + maxBlockSize
+                    + " segmentSize:" + segmentSize + " compactPercent:" + compactPercent);
+        }
+        this.index = index;
+        this.volumes = volumes;
+        this.maxBlockSize = maxBlockSize;
+        this.segmentSize = segmentSize;
+        this.compactPercent = compactPercent;
+        this.volumeLocks = new Object[volumes.getVolumes().size()];
+        for (int i = 0; i < volumeLocks.length; i++) {
+            volumeLocks[i] = new Object();
+        }
+    }
+
+    // whether a block of the size goes to a segment
+    public boolean accepts(long size) {
+        return size > 0 && size <= maxBlockSize;
+    }
+
+    // called once the index is loaded, segments with no block of the index are deleted
+    public void open() throws IOException {
+        long maxId = 0;
+        for (DiskVolume volume : volumes.getVolumes()) {
+            Path dir = Paths.get(volume.getDir(), SEGMENT_DIR);
+            Files.createDirectories(dir);
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SEGMENT_SUFFIX)) {
+                for (Path file : stream) {
+                    maxId = Math.max(maxId, segmentId(file));
+                    if (!segments.containsKey(file.toString())) {
+                        LOG.info("delete segment {} with no block", file);
+                        Files.deleteIfExists(file);
+                    }
+                }
+            }
+        }
+        nextId.set(maxId + 1);
+        LOG.info("opened segment store segments:{} next:{}", segments.size(), nextId.get());
+    }
+
+    public void start(long intervalMs) {
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                compact();
+            } catch (RuntimeException e) {
+                LOG.error("exception to compact segments", e);
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    // append the block, sync it and index it, returns its location
+    public String put(String blockPath, byte[] data, int off, int len, long crc) throws IOException {
+        Append append = append(blockPath, data, off, len, crc);
+        commit(Collections.singletonList(append));
+        return append.getLocation();
+    }
+
+    // append the block without indexing it, it's indexed by commit
+    public Append append(String blockPath, byte[] data, int off, int len, long crc) throws IOException {
+        return append(volumes.place(blockPath).getId(), blockPath, data, off, len, crc);
+    }
+
+    // sync the segments of the appends once each, then index their blocks. None is indexed if the sync fails
+    public void commit(List<Append> appends) throws IOException {
+        try {
+            Set<Segment> synced = new HashSet<>();
+            for (Append append : appends) {
+                if (synced.add(append.segment)) {
+                    sync(append.segment);
+                }
+            }
+            for (Append append : appends) {
+                index.add(append.blockPath, append.location, append.length, append.crc);
+                appendCount.incrementAndGet();
+            }
+        } finally {
+            for (Append append : appends) {
+                append.segment.writers.decrementAndGet();
+            }
+        }
+    }
+
+    // runs on the compact thread only
+    void compact() {
+        for (Segment segment : new ArrayList<>(segments.values())) {
+            if (!segment.sealed || segment.writers.get() > 0) {
+                continue;
+            }
+            if (segment.live.isEmpty()) {
+                delete(segment);
+                continue;
+            }
+            long used = segment.usedSize();
+            if (used == 0 || segment.liveSize.get() * 100 >= used * compactPercent) {
+                continue;
+            }
+            long start = System.currentTimeMillis();
+            long moved = 0;
+            for (DiskEntry entry : segment.live.values()) {
+                try {
+                    if (move(entry)) {
+                        moved += entry.getSize();
+                    }
+                } catch (IOException e) {
+                    LOG.error("exception to move block {} out of segment", entry, e);
+                }
+            }
+            compactCount.incrementAndGet();
+            movedSize.addAndGet(moved);
+            LOG.info("compacted segment {} size:{} moved:{} in {}ms", segment.file, used, moved,
+                    System.currentTimeMillis() - start);
+            if (segment.live.isEmpty()) {
+                delete(segment);
+            }
+        }
+    }
+
+    @Override
+    public void onAdd(DiskEntry entry) {
+        if (!isSegment(entry.getLocation())) {
+            return;
+        }
+        String file = slot(entry.getLocation()).getFile();
+        // segments of a loaded index are sealed, appends go to new ones
+        Segment segment = segments.computeIfAbsent(file, f -> {
+            Segment loaded = new Segment(f, volumeOf(f));
+            loaded.sealed = true;
+            return loaded;
+        });
+        segment.live.put(entry.getPath(), entry);
+        segment.liveSize.addAndGet(entry.getSize());
+    }
+
+    @Override
+    public void onRemove(DiskEntry entry) {
+        if (!isSegment(entry.getLocation())) {
+            return;
+        }
+        Segment segment = segments.get(slot(entry.getLocation()).getFile());
+        if (segment != null && segment.live.remove(entry.getPath(), entry)) {
+            segment.liveSize.addAndGet(-entry.getSize());
+        }
+    }
+
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    public long getAppendCount() {
+        return appendCount.get();
+    }
+
+    public long getCompactCount() {
+        return compactCount.get();
+    }
+
+    public long getMovedSize() {
+        return movedSize.get();
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+        for (int volume = 0; volume < volumeLocks.length; volume++) {
+            synchronized (volumeLocks[volume]) {
+                Segment segment = openSegments.remove(volume);
+                if (segment != null) {
+                    seal(segment);
+                }
+            }
+        }
+    }
+
+    public static boolean isSegment(String location) {
+        return location.startsWith(LOCATION_PREFIX);
+    }
+
+    public static Slot slot(String location) {
+        int hash = location.lastIndexOf('#');
+        int plus = location.lastIndexOf('+');
+        if (!isSegment(location) || hash < 0 || plus < hash) {
+            throw new IllegalArgumentException("invalid segment location " + location);
+        }
+        return new Slot(location.substring(LOCATION_PREFIX.length(), hash),
+                Long.parseLong(location.substring(hash + 1, plus)), Integer.parseInt(location.substring(plus + 1)));
+    }
+
+    // whole block of the entry, from its own file or its segment
+    public static byte[] readBlock(DiskEntry entry) throws IOException {
+        if (!isSegment(entry.getLocation())) {
+            return Files.readAllBytes(Paths.get(entry.getLocation()));
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) entry.getSize());
+        readBlock(entry, buffer);
+        return buffer.array();
+    }
+
+    // read the whole block into the remaining of the buffer, which must take the size of the entry
+    public static void readBlock(DiskEntry entry, ByteBuffer buffer) throws IOException {
+        String file = entry.getLocation();
+        long offset = 0;
+        if (isSegment(file)) {
+            Slot slot = slot(file);
+            file = slot.getFile();
+            offset = slot.getOffset();
+        }
+        int start = buffer.position();
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            while (buffer.position() - start < entry.getSize()) {
+                if (channel.read(buffer, offset + buffer.position() - start) < 0) {
+                    throw new IOException(file + " ends before block " + entry);
+                }
+            }
+        }
+    }
+
+    // delete the file of a block removed from the index, a slot in a segment is freed by the index
+    public static void deleteBlock(DiskEntry entry) throws IOException {
+        if (!isSegment(entry.getLocation())) {
+            Files.deleteIfExists(Paths.get(entry.getLocation()));
+        }
+    }
+
+    public static boolean blockExists(DiskEntry entry) {
+        String location = entry.getLocation();
+        return Files.exists(Paths.get(isSegment(location) ? slot(location).getFile() : location));
+    }
+
+    private boolean move(DiskEntry entry) throws IOException {
+        if (index.peek(entry.getPath()) != entry) {
+            return false;
+        }
+        byte[] data = readBlock(entry);
+        Append append = append(volumeOf(slot(entry.getLocation()).getFile()), entry.getPath(), data, 0,
+                data.length, entry.getCrc());
+        try {
+            sync(append.segment);
+            return index.move(entry, append.location) != null;
+        } finally {
+            append.segment.writers.decrementAndGet();
+        }
+    }
+
+    private Append append(int volume, String blockPath, byte[] data, int off, int len, long crc)
+            throws IOException {
+        synchronized (volumeLocks[volume]) {
+            Segment segment = openSegment(volume, len);
+            return new Append(segment, blockPath, append(segment, data, off, len), len, crc);
+        }
+    }
+
+    // a sealed segment was synced when it was sealed
+    private void sync(Segment segment) throws IOException {
+        synchronized (volumeLocks[segment.volume]) {
+            if (!segment.sealed) {
+                segment.channel.force(false);
+            }
+        }
+    }
+
+    // open segment of the volume with room for the block, runs with the lock of the volume held
+    private Segment openSegment(int volume, int len) throws IOException {
+        Segment segment = openSegments.get(volume);
+        if (segment != null && segment.writePos + len <= segmentSize) {
+            return segment;
+        }
+        if (segment != null) {
+            seal(segment);
+            openSegments.remove(volume);
+        }
+        Path dir = Paths.get(volumes.getVolumes().get(volume).getDir(), SEGMENT_DIR);
+        Files.createDirectories(dir);
+        Path file = dir.resolve(String.format("%010d%s", nextId.getAndIncrement(), SEGMENT_SUFFIX));
+        segment = new Segment(file.toString(), volume);
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            // java can't fallocate, the length at least keeps the file from growing on every append
+            raf.setLength(segmentSize);
+        }
+        segment.channel = FileChannel.open(file, StandardOpenOption.WRITE);
+        // the file and its length are durable, so an append only has to sync its data
+        segment.channel.force(true);
+        FileUtils.syncDir(dir);
+        segments.put(segment.file, segment);
+        openSegments.put(volume, segment);
+        return segment;
+    }
+
+    // runs with the lock of the volume held
+    private String append(Segment segment, byte[] data, int off, int len) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data, off, len);
+        long pos = segment.writePos;
+        while (buffer.hasRemaining()) {
+            segment.channel.write(buffer, pos + buffer.position() - off);
+        }
+        segment.writePos += len;
+        segment.writers.incrementAndGet();
+        return LOCATION_PREFIX + segment.file + "#" + pos + "+" + len;
+    }
+
+    // runs with the lock of the volume held
+    private void seal(Segment segment) {
+        try {
+            // give back the preallocated tail
+            segment.channel.truncate(segment.writePos);
+            segment.channel.force(true);
+            segment.channel.close();
+        } catch (IOException e) {
+            LOG.error("exception to seal segment {}", segment.file, e);
+        }
+        segment.sealed = true;
+    }
+
+    private void delete(Segment segment) {
+        segments.remove(segment.file, segment);
+        try {
+            // a response still reading the segment keeps it open
+            Files.deleteIfExists(Paths.get(segment.file));
+            LOG.info("delete segment {}", segment.file);
+        } catch (IOException e) {
+            LOG.error("exception to delete segment {}", segment.file, e);
+        }
+    }
+
+    private int volumeOf(String file) {
+        DiskVolume volume = volumes.volumeOf(file);
+        return volume != null ? volume.getId() : 0;
+    }
+
+    private static long segmentId(Path file) {
+        String name = file.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2025 Yangagile. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloud.pc.pulse;
+
+import com.cloud.pc.chash.ConsistentHash;
+import com.cloud.pc.chash.HashValue;
+import com.cloud.pc.chash.PcpHashInfo;
+
+/**
+ * The hash ring of the PCPs as the clients see it, so the PCP knows which blocks the
+ * clients send to it. Refreshed from the PMS with the pulse.
+ */
+public class PcpRing {
+    private static final PcpRing instance = new PcpRing();
+
+    private ConsistentHash ring;
+    private String checksum = "";
+    private String self;
+
+    public static PcpRing instance() {
+        return instance;
+    }
+
+    public synchronized String getChecksum() {
+        return checksum;
+    }
+
+    // the list is null if the ring didn't change since checksum
+    public synchronized void update(PcpHashInfo info, String self) {
+        this.self = self;
+        if (info == null || info.getPcpList() == null) {
+            return;
+        }
+        ConsistentHash newRing = new ConsistentHash();
+        for (HashValue node : info.getPcpList()) {
+            newRing.addNode(node);
+        }
+        ring = newRing;
+        checksum = info.getChecksum();
+    }
+
+    // whether clients send the block of the hash key to this PCP, false while the ring is unknown
+    public synchronized boolean owns(String hashKey) {
+        return ring != null && self != null && self.equals(ring.getNode(hashKey));
+    }
+}
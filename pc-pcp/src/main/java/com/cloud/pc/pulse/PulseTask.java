@@ -17,11 +17,15 @@
 package com.cloud.pc.pulse;
 
 import com.cloud.pc.cache.BlockCache;
+import com.cloud.pc.chash.PcpHashInfo;
 import com.cloud.pc.config.Envs;
+import com.cloud.pc.disk.DiskEvictor;
+import com.cloud.pc.disk.DiskVolumes;
 import com.cloud.pc.model.PmsInfo;
 import com.cloud.pc.scanner.DirectoryScanner;
 import com.cloud.pc.model.PcpPulseInfo;
 import com.cloud.pc.scanner.FileStat;
+import com.cloud.pc.task.ScanDetector;
 import com.cloud.pc.utils.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -68,20 +72,38 @@ public class PulseTask implements Runnable, UrlProbe.IUrlProbeFunction{
             pulseInfo.setUsedSize(stat.getSize());
             pulseInfo.setFileCount(stat.getCount());
             pulseInfo.setLevel(1);
+            pulseInfo.setInfo(DiskVolumes.instance().getUsageInfo());
             String info = JsonUtils.toJson(pulseInfo);
             LOG.info("PCP pulse info:{} memoryCache:{}/{}", info,
                     BlockCache.instance().size(), Envs.BlockCacheSize);
+            LOG.info("PCP bucket stats memory:{} disk:{}", BlockCache.instance().getPartitions().getStats(),
+                    DiskEvictor.instance().getPartitions().getStats());
+            LOG.info("PCP scan stats:{}", ScanDetector.instance().getStats());
             HttpUtils.HttpResponse response = HttpUtils.sendRequest(url, "POST", getPmsHeader(),
                     null, info);
             if (response.getStatusCode() != 200) {
                 LOG.error("failed to send pulse info! error:{}" , response.getStatusCode());
             }
+            updateRing(pulseInfo.getHost());
         } catch (IOException e) {
             urlProbe.reportFail(url);
             LOG.error("failed to send pulse info with exception" , e);
         }
     }
 
+    // the ring the clients hash blocks with, to read ahead only the blocks sent to this PCP
+    private void updateRing(String self) throws IOException {
+        String url = FileUtils.mergePath(urlProbe.getUrl(), "api/v1/pcp/hash");
+        Map<String, String> params = new HashMap<>();
+        params.put("checksum", PcpRing.instance().getChecksum());
+        HttpUtils.HttpResponse response = HttpUtils.sendRequest(url, "GET", getPmsHeader(), params, null);
+        if (response.getStatusCode() == 200) {
+            PcpRing.instance().update(JsonUtils.fromJson(response.getBody(), PcpHashInfo.class), self);
+        } else {
+            LOG.error("failed to get PCP hash list! error:{}", response.getStatusCode());
+        }
+    }
+
     public List<PmsInfo> getPmsApi(String url) {
         StringBuilder path = new StringBuilder(FileUtils.mergePath(url,"/api/v1/pms/list"));
         try {
@@ -16,6 +16,10 @@
 
 package com.cloud.pc.scanner;
 
+import com.cloud.pc.disk.DiskEntry;
+import com.cloud.pc.disk.DiskIndex;
+import com.cloud.pc.disk.DiskWriter;
+import com.cloud.pc.disk.SegmentStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -23,57 +27,45 @@ import java.io.IOException;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 
+/**
+ * Reconciliation of the disk index with the files under the data dir. Every file seen is
+ * marked with the generation of the scan, files the index misses are added, files
+ * whose size changed are indexed again and copies of a block the index doesn't point at
+ * are deleted. Visiting is throttled to filesPerSecond, so the
+ * scan doesn't compete with serving blocks.
+ */
 public class DirectoryFilter extends SimpleFileVisitor<Path> {
     private static final Logger LOG = LoggerFactory.getLogger(DirectoryFilter.class);
-
-    private Long timeSpan;
-    private Long timeNow;
-    private Long timeMaxSpan;
-    private Long emptyDirCount;
-    private Long errorCount;
-
-    private FileStat[] statCounter;
-
-    public DirectoryFilter(long timeSpan, long timeMaxSpan) {
-        this.timeSpan = timeSpan;
-        this.timeMaxSpan = timeMaxSpan;
-        this.timeNow = System.currentTimeMillis();
-        this.emptyDirCount = 0L;
-        this.errorCount = 0L;
-        this.statCounter = new FileStat[getCounterIndex(timeMaxSpan)+1];
-        for(int i=0; i< statCounter.length; i++){
-            statCounter[i] = new FileStat();
-        }
+    private static final long TEMP_FILE_EXPIRE = 3600 * 1000L;
+
+    private final Path root;
+    private final DiskIndex index;
+    private final int generation;
+    private final long filesPerSecond;
+    private long fileCount;
+    private long addedCount;
+    private long emptyDirCount;
+    private long errorCount;
+    private long windowStart;
+    private long windowCount;
+
+    public DirectoryFilter(Path root, DiskIndex index, int generation, long filesPerSecond) {
+        this.root = root;
+        this.index = index;
+        this.generation = generation;
+        this.filesPerSecond = filesPerSecond;
+        this.windowStart = System.currentTimeMillis();
     }
+
     @Override
     public String toString() {
-        FileStat currentSize = new FileStat();
-        FileStat deletedSize = statCounter[statCounter.length-1];
-        for(int i=0; i< statCounter.length-1; i++){
-            currentSize.add(statCounter[i]);
-        }
-        return "scanner result: "
-                + " current size: " +  currentSize
-                + " deleted size: " + deletedSize
+        return "reconcile result: "
+                + " file count: " + fileCount
+                + " added count: " + addedCount
                 + " deleted dir count: " + emptyDirCount
                 + " error count: " + errorCount;
     }
 
-
-    int getCounterIndex(long span) {
-        if (span > timeMaxSpan) {
-            span = timeMaxSpan;
-        }
-        int i = 0;
-        long curSpan = timeSpan;
-        while(span > curSpan) {
-            span -= curSpan;
-            curSpan *= 2;
-            i++;
-        }
-        return i;
-    }
-
     public boolean isEmptyDirectory(Path path) {
         try {
             try (DirectoryStream<Path> dirStream = Files.newDirectoryStream(path)) {
@@ -86,6 +78,10 @@ public class DirectoryFilter extends SimpleFileVisitor<Path> {
 
     @Override
     public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+        if (index.isIndexDir(dir) || dir.getFileName() != null
+                && SegmentStore.SEGMENT_DIR.equals(dir.getFileName().toString())) {
+            return FileVisitResult.SKIP_SUBTREE;
+        }
         if (isEmptyDirectory(dir)) {
             dir.toFile().delete();
             LOG.info("delete dir: " + dir.getFileName());
@@ -96,15 +92,29 @@ public class DirectoryFilter extends SimpleFileVisitor<Path> {
 
     @Override
     public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
-        long span = timeNow - attrs.lastAccessTime().toMillis();
-        int i = getCounterIndex(span);
-        statCounter[i].addSize(attrs.size());
-        statCounter[i].addCount(1 );
-
-        // 检查访问时间
-        if (span > timeMaxSpan) {
-            file.toFile().delete();
-            LOG.info("delete file: " + file.getFileName() +" | size: " + attrs.size() + " bytes");
+        throttle();
+        fileCount++;
+        if (DiskWriter.isTempFile(file)) {
+            // left by a crash if it's not written any more
+            if (attrs.lastModifiedTime().toMillis() < System.currentTimeMillis() - TEMP_FILE_EXPIRE) {
+                file.toFile().delete();
+            }
+            return FileVisitResult.CONTINUE;
+        }
+        String path = DiskIndex.blockPath(root, file);
+        DiskEntry entry = index.peek(path);
+        if (entry != null && !DiskIndex.isLocation(entry, file)) {
+            // a copy the index doesn't point at, left in another data dir or when the block moved to a segment
+            try {
+                index.deleteCopy(path, file);
+            } catch (IOException e) {
+                errorCount++;
+            }
+        } else if (entry != null && entry.getSize() == attrs.size()) {
+            entry.setMark(generation);
+        } else if (entry == null || index.remove(path, entry)) {
+            index.add(path, file.toString(), attrs.size(), 0, attrs.lastAccessTime().toMillis());
+            addedCount++;
         }
         return FileVisitResult.CONTINUE;
     }
@@ -115,60 +125,35 @@ public class DirectoryFilter extends SimpleFileVisitor<Path> {
         return FileVisitResult.CONTINUE;
     }
 
-    public FileStat getUsage() {
-        FileStat currentSize = new FileStat();
-        for(int i=0; i< statCounter.length-1; i++){
-            currentSize.add(statCounter[i]);
+    private void throttle() {
+        if (filesPerSecond <= 0 || ++windowCount < filesPerSecond) {
+            return;
         }
-        return currentSize;
-    }
-
-    public Long getTimeSpan() {
-        return timeSpan;
-    }
-
-    public void setTimeSpan(Long timeSpan) {
-        this.timeSpan = timeSpan;
-    }
-
-    public Long getTimeNow() {
-        return timeNow;
-    }
-
-    public void setTimeNow(Long timeNow) {
-        this.timeNow = timeNow;
+        long elapsed = System.currentTimeMillis() - windowStart;
+        if (elapsed < 1000) {
+            try {
+                Thread.sleep(1000 - elapsed);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        windowStart = System.currentTimeMillis();
+        windowCount = 0;
     }
 
-    public Long getTimeMaxSpan() {
-        return timeMaxSpan;
+    public long getFileCount() {
+        return fileCount;
     }
 
-    public void setTimeMaxSpan(Long timeMaxSpan) {
-        this.timeMaxSpan = timeMaxSpan;
+    public long getAddedCount() {
+        return addedCount;
     }
 
-    public Long getEmptyDirCount() {
+    public long getEmptyDirCount() {
         return emptyDirCount;
     }
 
-    public void setEmptyDirCount(Long emptyDirCount) {
-        this.emptyDirCount = emptyDirCount;
-    }
-
-    public Long getErrorCount() {
+    public long getErrorCount() {
         return errorCount;
     }
-
-    public void setErrorCount(Long errorCount) {
-        this.errorCount = errorCount;
-    }
-
-    public FileStat[] getStatCounter() {
-        return statCounter;
-    }
-
-    public void setStatCounter(FileStat[] statCounter) {
-        this.statCounter = statCounter;
-    }
 }
-
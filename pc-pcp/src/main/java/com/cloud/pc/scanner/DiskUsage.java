@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2025 Yangagile. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloud.pc.scanner;
+
+import com.cloud.pc.disk.DiskEntry;
+import com.cloud.pc.disk.DiskIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Usage of the disk tier, kept up to date from the changes of the disk index instead of
+ * walking the data dir. Blocks are counted in slots of timeSpan by their last access, the
+ * age histogram is built from the slots, the first bucket covers timeSpan and every next
+ * bucket doubles. Blocks not accessed for timeMaxSpan are deleted.
+ */
+public class DiskUsage implements DirectoryScanner, DiskIndex.Listener, Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(DiskUsage.class);
+
+    private final DiskIndex index;
+    private final long timeSpan;
+    private final long timeMaxSpan;
+    private final ConcurrentSkipListMap<Long, Slot> slots = new ConcurrentSkipListMap<>();
+    private final FileStat deleted = new FileStat();
+
+    private static class Slot {
+        final AtomicLong size = new AtomicLong();
+        final AtomicLong count = new AtomicLong();
+
+        void add(long size, long count) {
+            this.size.addAndGet(size);
+            this.count.addAndGet(count);
+        }
+    }
+
+    public DiskUsage(DiskIndex index, long timeSpan, long timeMaxSpan) {
+        this.index = index;
+        this.timeSpan = timeSpan;
+        this.timeMaxSpan = timeMaxSpan;
+        index.addListener(this);
+    }
+
+    @Override
+    public void onAdd(DiskEntry entry) {
+        slot(entry.getLastAccess()).add(entry.getSize(), 1);
+    }
+
+    @Override
+    public void onRemove(DiskEntry entry) {
+        slot(entry.getLastAccess()).add(-entry.getSize(), -1);
+    }
+
+    @Override
+    public void onAccess(DiskEntry entry, long previousAccess) {
+        long from = previousAccess / timeSpan;
+        long to = entry.getLastAccess() / timeSpan;
+        if (from != to) {
+            slot(previousAccess).add(-entry.getSize(), -1);
+            slot(entry.getLastAccess()).add(entry.getSize(), 1);
+        }
+    }
+
+    private Slot slot(long time) {
+        return slots.computeIfAbsent(time / timeSpan, k -> new Slot());
+    }
+
+    @Override
+    public FileStat getUsage() {
+        FileStat usage = new FileStat();
+        usage.setSize(index.size());
+        usage.setCount(index.count());
+        return usage;
+    }
+
+    int getCounterIndex(long span) {
+        if (span > timeMaxSpan) {
+            span = timeMaxSpan;
+        }
+        int i = 0;
+        long curSpan = timeSpan;
+        while(span > curSpan) {
+            span -= curSpan;
+            curSpan *= 2;
+            i++;
+        }
+        return i;
+    }
+
+    public FileStat[] getAgeHistogram() {
+        long now = System.currentTimeMillis();
+        FileStat[] histogram = new FileStat[getCounterIndex(timeMaxSpan) + 1];
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = new FileStat();
+        }
+        for (Map.Entry<Long, Slot> e : slots.entrySet()) {
+            long span = Math.max(0, now - e.getKey() * timeSpan);
+            FileStat stat = histogram[getCounterIndex(span)];
+            stat.addSize(e.getValue().size.get());
+            stat.addCount(e.getValue().count.get());
+        }
+        return histogram;
+    }
+
+    // delete the blocks not accessed for timeMaxSpan, only the index is scanned and only if there are any
+    @Override
+    public void run() {
+        long expireBefore = System.currentTimeMillis() - timeMaxSpan;
+        Map.Entry<Long, Slot> oldest = slots.firstEntry();
+        while (oldest != null && (oldest.getKey() + 1) * timeSpan < expireBefore
+                && oldest.getValue().count.get() == 0) {
+            slots.remove(oldest.getKey(), oldest.getValue());
+            oldest = slots.firstEntry();
+        }
+        if (oldest != null && oldest.getKey() * timeSpan < expireBefore) {
+            for (DiskEntry entry : index.entries()) {
+                if (entry.getLastAccess() < expireBefore && !entry.isPinned() && index.evict(entry)) {
+                    synchronized (deleted) {
+                        deleted.addSize(entry.getSize());
+                        deleted.addCount(1);
+                    }
+                    LOG.info("delete file: " + entry.getLocation() + " | size: " + entry.getSize() + " bytes");
+                }
+            }
+        }
+        LOG.info("disk usage: {}", this);
+    }
+
+    @Override
+    public String toString() {
+        FileStat usage = getUsage();
+        StringBuilder histogram = new StringBuilder();
+        for (FileStat stat : getAgeHistogram()) {
+            histogram.append(stat.getCount()).append('/').append(stat.getSize()).append(' ');
+        }
+        synchronized (deleted) {
+            return "current size: " + usage.getSize() + " count: " + usage.getCount()
+                    + " deleted size: " + deleted.getSize() + " count: " + deleted.getCount()
+                    + " age histogram(count/size): " + histogram.toString().trim();
+        }
+    }
+}
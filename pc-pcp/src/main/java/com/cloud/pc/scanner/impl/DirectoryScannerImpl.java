@@ -17,35 +17,59 @@
 package com.cloud.pc.scanner.impl;
 
 import com.cloud.pc.config.Envs;
+import com.cloud.pc.disk.DiskEntry;
+import com.cloud.pc.disk.DiskIndex;
+import com.cloud.pc.disk.SegmentStore;
 import com.cloud.pc.scanner.DirectoryFilter;
-import com.cloud.pc.scanner.DirectoryScanner;
-import com.cloud.pc.scanner.FileStat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
 
-public class DirectoryScannerImpl implements Runnable, DirectoryScanner {
+/**
+ * Full reconciliation scan of the data dirs, run rarely on a low priority thread. Files
+ * missing from the index are added, and indexed blocks the scan didn't see are removed if
+ * their file is really gone.
+ */
+public class DirectoryScannerImpl implements Runnable {
     private static final Logger LOG = LoggerFactory.getLogger(DirectoryScannerImpl.class);
-    private volatile DirectoryFilter lastFilter;
+
+    private final DiskIndex index;
+    private final List<String> dataDirs;
+
+    public DirectoryScannerImpl(DiskIndex index, List<String> dataDirs) {
+        this.index = index;
+        this.dataDirs = dataDirs;
+    }
+
     @Override
     public void run() {
-        try {
-            DirectoryFilter filter = new DirectoryFilter(Envs.timeSpan, Envs.timeSpanDelete);
-            Files.walkFileTree(Paths.get(Envs.dataDir), filter);
-            LOG.info("scan {} done! {}", Envs.dataDir, filter);
-            lastFilter = filter;
-        } catch (IOException e) {
-            LOG.error("failed to send pulse info with exception" , e);
+        long start = System.currentTimeMillis();
+        int generation = index.beginScan();
+        for (String dataDir : dataDirs) {
+            Path root = Paths.get(dataDir);
+            DirectoryFilter filter = new DirectoryFilter(root, index, generation, Envs.diskReconcileRate);
+            try {
+                Files.walkFileTree(root, filter);
+            } catch (IOException e) {
+                // entries of the dir can't be told from missing files, skip the sweep
+                LOG.error("exception to reconcile {}", dataDir, e);
+                return;
+            }
+            LOG.info("reconcile {} done! {}", dataDir, filter);
         }
-    }
 
-    public FileStat getUsage() {
-        if (lastFilter != null) {
-            return lastFilter.getUsage();
+        long removed = 0;
+        for (DiskEntry entry : index.entries()) {
+            if (entry.getMark() != generation && !SegmentStore.blockExists(entry)
+                    && index.remove(entry.getPath(), entry)) {
+                removed++;
+            }
         }
-        return null;
+        LOG.info("reconcile done in {}ms! removed count: {}", System.currentTimeMillis() - start, removed);
     }
 }
@@ -28,6 +28,7 @@ public class BlockCounter {
     private AtomicLong hitRemote = new AtomicLong(0);
     private AtomicLong hitDisk = new AtomicLong(0);
     private AtomicLong hitMemory = new AtomicLong(0);
+    private AtomicLong coalesced = new AtomicLong(0);
 
     public static BlockCounter instance() {
         return instance;
@@ -51,9 +52,14 @@ public class BlockCounter {
         }
     }
 
+    // a request answered by the fetch of another request
+    public void coalesce() {
+        coalesced.incrementAndGet();
+    }
+
     public String toString() {
-        return String.format("CacheStats: total:%d error:%d hit_remote:%d hit_disk:%d hit_memory:%d",
-                total.get(), error.get(), hitRemote.get(), hitDisk.get(), hitMemory.get());
+        return String.format("CacheStats: total:%d error:%d hit_remote:%d hit_disk:%d hit_memory:%d coalesced:%d",
+                total.get(), error.get(), hitRemote.get(), hitDisk.get(), hitMemory.get(), coalesced.get());
     }
 
     public void reset() {
@@ -62,5 +68,6 @@ public class BlockCounter {
         hitRemote = new AtomicLong(0);
         hitDisk = new AtomicLong(0);
         hitMemory = new AtomicLong(0);
+        coalesced = new AtomicLong(0);
     }
 }
@@ -21,7 +21,7 @@ import com.cloud.pc.model.StsInfo;
 import com.cloud.pc.utils.HttpHelper;
 import com.cloud.pc.utils.JsonUtils;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpRequest;
 import org.apache.commons.lang3.StringUtils;
 
 public class BaseTask implements Runnable {
@@ -31,7 +31,7 @@ public class BaseTask implements Runnable {
     protected PcPath pcPath;
     protected String localFile;
 
-    public BaseTask(ChannelHandlerContext ctx, FullHttpRequest request) {
+    public BaseTask(ChannelHandlerContext ctx, HttpRequest request) {
         this.ctx = ctx;
 
         // method
@@ -52,5 +52,13 @@ public class BaseTask implements Runnable {
         }
     }
 
+    public String getBlockPath() {
+        return pcPath.toString();
+    }
+
+    public String getLocalFile() {
+        return localFile;
+    }
+
     public void run() {};
 }
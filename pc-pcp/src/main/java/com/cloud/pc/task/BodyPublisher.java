@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2025 Yangagile. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloud.pc.task;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Optional;
+import java.util.function.LongConsumer;
+
+/**
+ * Request body of a streaming upload for the async S3 client. The event loop offers the
+ * chunks as they arrive and they're handed to the upload request as it asks for them.
+ * onConsumed is told about every chunk leaving the queue, so the caller can pause reading
+ * from the socket while the upload lags behind.
+ */
+public class BodyPublisher implements AsyncRequestBody {
+    private final long contentLength;
+    private final LongConsumer onConsumed;
+    private final ArrayDeque<ByteBuffer> chunks = new ArrayDeque<>();
+    private Subscriber<? super ByteBuffer> subscriber;
+    private long demand = 0;
+    private boolean ended = false;
+    private boolean done = false;
+    private boolean delivering = false;
+    private Throwable failure;
+
+    public BodyPublisher(long contentLength, LongConsumer onConsumed) {
+        this.contentLength = contentLength;
+        this.onConsumed = onConsumed;
+    }
+
+    @Override
+    public Optional<Long> contentLength() {
+        return Optional.of(contentLength);
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super ByteBuffer> s) {
+        boolean rejected;
+        synchronized (this) {
+            rejected = subscriber != null;
+            if (!rejected) {
+                subscriber = s;
+            }
+        }
+        if (rejected) {
+            // the body can be sent only once, a retry of the SDK fails and the caller replays it from local
+            s.onSubscribe(new Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            s.onError(new IllegalStateException("request body can't be sent twice"));
+            return;
+        }
+        s.onSubscribe(new Subscription() {
+            @Override
+            public void request(long n) {
+                if (n <= 0) {
+                    abort(new IllegalArgumentException("non-positive request " + n));
+                    return;
+                }
+                synchronized (BodyPublisher.this) {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                }
+                drain();
+            }
+
+            @Override
+            public void cancel() {
+                synchronized (BodyPublisher.this) {
+                    done = true;
+                }
+                releaseAll();
+            }
+        });
+        drain();
+    }
+
+    // called on the event loop, the chunk must not change afterwards
+    public void offer(ByteBuffer chunk) {
+        synchronized (this) {
+            if (!done && failure == null) {
+                chunks.add(chunk);
+                chunk = null;
+            }
+        }
+        if (chunk != null) {
+            onConsumed.accept(chunk.remaining());
+            return;
+        }
+        drain();
+    }
+
+    public void end() {
+        synchronized (this) {
+            ended = true;
+        }
+        drain();
+    }
+
+    public void abort(Throwable cause) {
+        synchronized (this) {
+            if (failure == null) {
+                failure = cause;
+            }
+        }
+        releaseAll();
+        drain();
+    }
+
+    // only one thread delivers at a time, the others leave what they added to it
+    private void drain() {
+        synchronized (this) {
+            if (delivering) {
+                return;
+            }
+            delivering = true;
+        }
+        while (true) {
+            Subscriber<? super ByteBuffer> s;
+            ByteBuffer next = null;
+            Throwable error = null;
+            synchronized (this) {
+                s = subscriber;
+                if (s == null || done) {
+                    delivering = false;
+                    return;
+                }
+                if (failure != null) {
+                    error = failure;
+                    done = true;
+                } else if (demand > 0 && !chunks.isEmpty()) {
+                    next = chunks.poll();
+                    demand--;
+                } else if (chunks.isEmpty() && ended) {
+                    done = true;
+                } else {
+                    delivering = false;
+                    return;
+                }
+            }
+            if (next != null) {
+                onConsumed.accept(next.remaining());
+                s.onNext(next);
+                continue;
+            }
+            synchronized (this) {
+                delivering = false;
+            }
+            if (error != null) {
+                s.onError(error);
+            } else {
+                s.onComplete();
+            }
+            return;
+        }
+    }
+
+    private void releaseAll() {
+        long released = 0;
+        synchronized (this) {
+            ByteBuffer chunk;
+            while ((chunk = chunks.poll()) != null) {
+                released += chunk.remaining();
+            }
+        }
+        if (released > 0) {
+            onConsumed.accept(released);
+        }
+    }
+}
@@ -17,29 +17,49 @@
 package com.cloud.pc.task;
 
 import com.cloud.pc.cache.BlockCache;
-import com.cloud.pc.cache.CacheNode;
+import com.cloud.pc.cache.BlockData;
+import com.cloud.pc.cache.BucketPartitions;
+import com.cloud.pc.disk.DiskEntry;
+import com.cloud.pc.disk.DiskEvictor;
+import com.cloud.pc.disk.DiskIndex;
+import com.cloud.pc.disk.DiskWriter;
+import com.cloud.pc.disk.MappedBlockReader;
+import com.cloud.pc.disk.SegmentStore;
+import com.cloud.pc.model.PcPath;
 import com.cloud.pc.model.PcpBlockStatus;
+import com.cloud.pc.model.StsInfo;
 import com.cloud.pc.stats.BlockCounter;
 import com.cloud.pc.utils.*;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.DefaultFileRegion;
 import io.netty.handler.codec.http.*;
+import io.netty.util.ReferenceCounted;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import software.amazon.awssdk.core.ResponseInputStream;
-import software.amazon.awssdk.core.sync.ResponseTransformer;
-import software.amazon.awssdk.services.s3.S3Client;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.core.async.SdkPublisher;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
 
 import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.zip.CRC32;
 
 import static com.cloud.pc.utils.HttpHelper.sendError;
+import static io.netty.handler.codec.http.HttpResponseStatus.INTERNAL_SERVER_ERROR;
 import static io.netty.handler.codec.http.HttpResponseStatus.NOT_FOUND;
+import static io.netty.handler.codec.http.HttpResponseStatus.REQUESTED_RANGE_NOT_SATISFIABLE;
 
 public class GetTask extends BaseTask {
     private static final Logger LOG = LoggerFactory.getLogger(GetTask.class);
@@ -47,8 +67,10 @@ public class GetTask extends BaseTask {
     private long dataSize;
     private long blockSize;
     private long offset;
+    // read by a scan, see ScanDetector
+    private boolean scan;
 
-    public GetTask(ChannelHandlerContext ctx, FullHttpRequest request) {
+    public GetTask(ChannelHandlerContext ctx, HttpRequest request) {
         super(ctx,request);
 
         dataSize = Long.parseLong(request.headers().get("X-DATA-SIZE"));
@@ -62,148 +84,448 @@ public class GetTask extends BaseTask {
         }
     }
 
+    // runs on the event loop, a memory hit is answered right here, false if the task must run on a pool
+    public boolean serveFromMemory() {
+        StreamTracker.instance().onRead(pcPath);
+        ReadAhead.instance().onRead(pcPath, stsInfo, blockSize);
+        scan = ScanDetector.instance().onRead(pcPath);
+        return sendFromMemory();
+    }
+
+    // whether the block is read from local disk, or from remote if not
+    public boolean isOnLocalDisk() {
+        return DiskIndex.instance().peek(pcPath.toString()) != null
+                || DiskWriter.instance().pendingData(pcPath.toString()) != null;
+    }
+
     @Override
     public void run() {
-        HttpResponse response = new DefaultHttpResponse(
-                HttpVersion.HTTP_1_1,
-                HttpResponseStatus.OK
-        );
-        response.headers().set(HttpHeaderNames.CONTENT_TYPE, "application/octet-stream");
-
-        // try from memory cache
-        CacheNode block = BlockCache.instance().getBlock(pcPath.toString());
-        if (block != null) {
-            sendFromBuffer(block.blockData, PcpBlockStatus.HIT_MEMORY.getValue());
-            BlockCounter.instance().hit(PcpBlockStatus.HIT_MEMORY);
+        // cached while the task was queued
+        if (sendFromMemory()) {
+            return;
+        }
+
+        // wait for the block if another request is fetching or writing it
+        CompletableFuture<InflightRegistry.Result> flight = new CompletableFuture<>();
+        CompletableFuture<InflightRegistry.Result> leader = InflightRegistry.instance().join(pcPath.toString(), flight);
+        if (leader != null) {
+            LOG.debug("[run] block={} waits for the request in flight", pcPath);
+            BlockCounter.instance().coalesce();
+            leader.whenComplete((result, e) -> {
+                if (result != null && result.getData() != null) {
+                    if (sendFromBuffer(Unpooled.wrappedBuffer(result.getData()), result.getStatus().getValue(),
+                            null)) {
+                        hit(result.getStatus(), result.getData().length);
+                    }
+                } else if (result != null && result.getFile() != null
+                        && sendFromFile(result.getFile(), -1, result.getStatus().getValue())) {
+                    hit(result.getStatus(), blockSize);
+                } else {
+                    sendError(ctx, NOT_FOUND);
+                }
+            });
             return;
         }
 
+        CompletableFuture<InflightRegistry.Result> fetch;
+        try {
+            fetch = fetchBlock();
+        } catch (Exception e) {
+            fetch = new CompletableFuture<>();
+            fetch.completeExceptionally(e);
+        }
+        fetch.whenComplete((result, e) -> {
+            if (e != null) {
+                LOG.error("[run] exception to get block {}", pcPath, e);
+                sendError(ctx, INTERNAL_SERVER_ERROR);
+            }
+            InflightRegistry.instance().complete(pcPath.toString(), flight, result);
+        });
+    }
+
+    private boolean sendFromMemory() {
+        BlockData block = BlockCache.instance().acquireBlock(pcPath.toString());
+        if (block == null) {
+            return false;
+        }
+        long size = block.content().readableBytes();
+        if (sendFromBuffer(block.content(), PcpBlockStatus.HIT_MEMORY.getValue(), block)) {
+            hit(PcpBlockStatus.HIT_MEMORY, size);
+        }
+        return true;
+    }
+
+    // count the hit of the tier in total and for the bucket, a hit of a lower tier is a miss of the upper ones
+    private void hit(PcpBlockStatus status, long bytes) {
+        BlockCounter.instance().hit(status);
+        String path = pcPath.toString();
+        BucketPartitions memory = BlockCache.instance().getPartitions();
+        BucketPartitions disk = DiskEvictor.instance() != null ? DiskEvictor.instance().getPartitions()
+                : BucketPartitions.none();
+        switch (status) {
+            case HIT_MEMORY:
+                memory.hit(path, bytes);
+                break;
+            case HIT_DISK:
+                memory.miss(path);
+                disk.hit(path, bytes);
+                break;
+            case HIT_REMOTE:
+                memory.miss(path);
+                disk.miss(path);
+                break;
+            default:
+                break;
+        }
+    }
+
+    // read the block from local disk or remote, completes with null if failed
+    private CompletableFuture<InflightRegistry.Result> fetchBlock() {
         // try from local disk
-        File file = new File(localFile);
-        if (file.exists()) {
-            byte[] blockData = readFromLocal();
-            if (blockData != null) {
-                sendFromBuffer(blockData, PcpBlockStatus.HIT_DISK.getValue());
-                BlockCounter.instance().hit(PcpBlockStatus.HIT_DISK);
-
-                // add to memory cache
-                BlockCache.instance().putBlock(pcPath.toString(), blockData);
+        DiskEntry entry = DiskIndex.instance().get(pcPath.toString());
+        if (entry != null && !inRange(entry.getSize())) {
+            // a bad range of the request says nothing about the file
+            sendRangeError(entry.getSize());
+            return CompletableFuture.completedFuture(
+                    new InflightRegistry.Result(null, entry.getLocation(), PcpBlockStatus.HIT_DISK));
+        }
+        if (entry != null) {
+            if (sendFromMapping(entry) || sendFromFile(entry.getLocation(), entry.getSize(),
+                    PcpBlockStatus.HIT_DISK.getValue())) {
+                hit(PcpBlockStatus.HIT_DISK, entry.getSize());
 
-                return;
+                // add to memory cache in background
+                if (ScanDetector.instance().admit(pcPath, scan)
+                        && MemoryPromoter.admit(pcPath.toString(), isPartial(entry.getSize()))) {
+                    MemoryPromoter.promote(pcPath.toString(), entry);
+                }
+                return CompletableFuture.completedFuture(
+                        new InflightRegistry.Result(null, entry.getLocation(), PcpBlockStatus.HIT_DISK));
             }
+            // the file is gone or changed behind the index
+            DiskIndex.instance().remove(pcPath.toString(), entry);
         }
 
-        // download from remote and send
-        byte[] blockData = downloadBlock();
-        if (blockData != null) {
-            sendFromBuffer(blockData, PcpBlockStatus.HIT_REMOTE.getValue());
+        // fetched by an earlier request and still queued to be written to local disk
+        byte[] queued = DiskWriter.instance().pendingData(pcPath.toString());
+        if (queued != null) {
+            if (sendFromBuffer(Unpooled.wrappedBuffer(queued), PcpBlockStatus.HIT_DISK.getValue(), null)) {
+                hit(PcpBlockStatus.HIT_DISK, queued.length);
+            }
+            return CompletableFuture.completedFuture(new InflightRegistry.Result(queued, PcpBlockStatus.HIT_DISK));
+        }
+
+        // stream from remote to the client, local disk and memory cache
+        return streamBlock().thenApply(blockData -> {
+            if (blockData == null) {
+                return null;
+            }
+            hit(PcpBlockStatus.HIT_REMOTE, blockData.length);
 
             // add to memory cache
-            BlockCache.instance().putBlock(pcPath.toString(), blockData);
+            if (ScanDetector.instance().admit(pcPath, scan)
+                    && MemoryPromoter.admit(pcPath.toString(), isPartial(blockData.length))) {
+                BlockCache.instance().putBlock(pcPath.toString(), blockData);
+            }
+            return new InflightRegistry.Result(blockData, PcpBlockStatus.HIT_REMOTE);
+        });
+    }
 
-            // save to local
-            saveToLocal(blockData);
-            BlockCounter.instance().hit(PcpBlockStatus.HIT_REMOTE);
-            return;
-        }
+    // whether the request reads only a part of the block of the length
+    private boolean isPartial(long blockLength) {
+        return offset > 0 || (dataSize > 0 && dataSize < blockLength);
+    }
+
+    // whether the requested range starts in the block of the length, a range past its end is clamped
+    private boolean inRange(long blockLength) {
+        return offset >= 0 && offset <= blockLength && dataSize >= 0;
+    }
+
+    // bytes of the block of the length the request reads, the range must be in the block
+    private long contentLength(long blockLength) {
+        return dataSize == 0 ? blockLength - offset : Math.min(dataSize, blockLength - offset);
+    }
 
-        // fail
-        sendError(ctx, NOT_FOUND);
+    private void sendRangeError(long blockLength) {
+        LOG.warn("[sendRangeError] block={} size={} has no range offset={} size={}", pcPath, blockLength,
+                offset, dataSize);
+        sendError(ctx, REQUESTED_RANGE_NOT_SATISFIABLE);
     }
 
-    private void sendFromBuffer(byte[] blockData, int hitType) {
-        LOG.debug("[sendFromBuffer] block={} size={} hitTpye={}", pcPath, blockData.length,hitType);
+    // owner is released once the response is written, false if the range isn't in the block and an error is sent
+    private boolean sendFromBuffer(ByteBuf blockData, int hitType, ReferenceCounted owner) {
+        LOG.debug("[sendFromBuffer] block={} size={} hitTpye={}", pcPath, blockData.readableBytes(), hitType);
 
         final ByteBuf buf;
         final int contentLength;
+        ChannelFuture future = null;
+        try {
+            if (dataSize == 0 || (offset == 0 && dataSize == blockData.readableBytes())) {
+                buf = blockData;
+                contentLength = blockData.readableBytes();
+            } else if (!inRange(blockData.readableBytes())) {
+                sendRangeError(blockData.readableBytes());
+                return false;
+            } else {
+                contentLength = (int) contentLength(blockData.readableBytes());
+                buf = blockData.slice((int) offset, contentLength);
+            }
 
-        if (dataSize == 0 || (offset == 0 && dataSize == blockData.length)) {
-            buf = Unpooled.wrappedBuffer(blockData);
-            contentLength = blockData.length;
-        } else {
-            contentLength = (int)Math.min(dataSize, blockData.length-offset);
-            buf = Unpooled.wrappedBuffer(blockData, (int) offset, contentLength);
-        }
+            FullHttpResponse respose = new DefaultFullHttpResponse(
+                    HttpVersion.HTTP_1_1,
+                    HttpResponseStatus.OK,
+                    buf);
+            HttpUtil.setContentLength(respose, contentLength);
+            respose.headers().set(HttpHeaderNames.CONTENT_TYPE, "application/octet-stream");
+            respose.headers().set("X-CACHE-HIT", hitType);
 
-        FullHttpResponse respose = new DefaultFullHttpResponse(
-                HttpVersion.HTTP_1_1,
-                HttpResponseStatus.OK,
-                buf);
-        HttpUtil.setContentLength(respose, contentLength);
-        respose.headers().set(HttpHeaderNames.CONTENT_TYPE, "application/octet-stream");
-        respose.headers().set("X-CACHE-HIT", hitType);
-        respose.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+            future = ctx.writeAndFlush(respose).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+            return true;
+        } finally {
+            if (owner != null) {
+                if (future != null) {
+                    future.addListener(f -> owner.release());
+                } else {
+                    owner.release();
+                }
+            }
+        }
+    }
 
-        ctx.writeAndFlush(respose);
+    // send the requested range from the mapping of the block file, false if it's not mapped.
+    // The range is checked against the entry by the caller
+    private boolean sendFromMapping(DiskEntry entry) {
+        MappedBlockReader reader = MappedBlockReader.instance();
+        if (reader == null) {
+            return false;
+        }
+        MappedBlockReader.MappedBlock block = reader.acquire(entry);
+        if (block == null) {
+            return false;
+        }
+        sendFromBuffer(block.content(), PcpBlockStatus.HIT_DISK.getValue(), block);
+        return true;
     }
 
-    private byte[] readFromLocal() {
-        LOG.debug("[readFromLocal] block={} file={}", pcPath, localFile);
+    // send the requested range of the local block file with zero copy, returns false if the file can't be
+    // opened or is shorter than the block, a range not in the block is answered with an error.
+    // fileLength comes from the disk index, -1 if unknown. A block in a segment is sent from its slot
+    private boolean sendFromFile(String file, long fileLength, int hitType) {
+        LOG.debug("[sendFromFile] block={} file={} hitType={}", pcPath, file, hitType);
+        long base = 0;
+        if (SegmentStore.isSegment(file)) {
+            SegmentStore.Slot slot = SegmentStore.slot(file);
+            file = slot.getFile();
+            base = slot.getOffset();
+            fileLength = slot.getLength();
+        }
+        RandomAccessFile raf = null;
         try {
-            byte[] fileData = Files.readAllBytes(Paths.get(localFile));
-            if (dataSize !=0 && fileData.length != dataSize) {
-                LOG.error("[readFromLocal] failed to read block {} from local {} read size {} of {}",
-                        pcPath, localFile, fileData.length, dataSize);
-                return null;
+            raf = new RandomAccessFile(file, "r");
+            if (fileLength < 0) {
+                fileLength = raf.length();
             }
-            return fileData;
-        } catch (IOException e) {
-            LOG.error("[readFromLocal] exception to read block {} from local {}", pcPath, localFile, e);
-        }
-        return null;
-    }
+            if (base + fileLength > raf.length()) {
+                LOG.error("[sendFromFile] failed to read block {} from local {} range {}+{} of {}",
+                        pcPath, file, base, fileLength, raf.length());
+                raf.close();
+                return false;
+            }
+            if (!inRange(fileLength)) {
+                raf.close();
+                sendRangeError(fileLength);
+                return true;
+            }
+            long contentLength = contentLength(fileLength);
+
+            HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+            HttpUtil.setContentLength(response, contentLength);
+            response.headers().set(HttpHeaderNames.CONTENT_TYPE, "application/octet-stream");
+            response.headers().set("X-CACHE-HIT", hitType);
 
-    private void saveToLocal(byte[] blockData) {
-        LOG.debug("[saveToLocal] block={} file={} ", pcPath, localFile);
-        FileUtils.mkParentDir(Paths.get(localFile));
-        try (FileOutputStream fos = new FileOutputStream(localFile)) {
-            fos.write(blockData);
+            ctx.write(response);
+            // the region closes the file once it's transferred
+            ctx.write(new DefaultFileRegion(raf.getChannel(), base + offset, contentLength));
+            ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+            return true;
         } catch (IOException e) {
-            LOG.error("[saveToLocal] exception to save block {} to local file {}", pcPath, localFile, e);
+            LOG.error("[sendFromFile] exception to read block {} from local {}", pcPath, file, e);
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException ignored) {
+                }
+            }
         }
+        return false;
     }
 
-    private byte[] downloadBlock() {
-        LOG.debug("[downloadBlock] block={}", pcPath);
-
-        GetObjectRequest getObjectRequest;
+    static GetObjectRequest buildGetObjectRequest(StsInfo stsInfo, PcPath pcPath, long blockSize) {
         if (blockSize == 0) {
-            getObjectRequest = GetObjectRequest.builder()
+            return GetObjectRequest.builder()
                     .bucket(stsInfo.getBucketName())
                     .key(pcPath.getKey())
                     .build();
-        } else {
-            long pos = (pcPath.getNumber() - 1) * blockSize;
-            String range = String.format("bytes=%d-%d", pos, pos + blockSize - 1);
-            getObjectRequest = GetObjectRequest.builder()
-                    .bucket(stsInfo.getBucketName())
-                    .key(pcPath.getKey())
-                    .range(range)
-                    .build();
         }
-        S3Client s3Client = S3ClientCache.buildS3Client(stsInfo, false);
-        ResponseInputStream<GetObjectResponse> res = s3Client.getObject(
-                getObjectRequest, ResponseTransformer.toInputStream());
-        if (!S3Utils.isGetObjectSuccessful(res)) {
-            LOG.error("[downloadBlock] failed to download block {}！for invalid response {}", pcPath, res);
-            return null;
-        }
-        try {
-            GetObjectResponse response = res.response();
-            long contentLength = response.contentLength();
-            byte[] data = new byte[(int) contentLength];
-
-            int bytesRead = res.read(data);
-            if (bytesRead != contentLength) {
-                LOG.error("[downloadBlock] failed to download block {}, bytesRead={} contentLength={}",
-                        pcPath, bytesRead, contentLength);
+        long pos = (pcPath.getNumber() - 1) * blockSize;
+        String range = String.format("bytes=%d-%d", pos, pos + blockSize - 1);
+        return GetObjectRequest.builder()
+                .bucket(stsInfo.getBucketName())
+                .key(pcPath.getKey())
+                .range(range)
+                .build();
+    }
+
+    // forward the block from remote to the client as it arrives and save it to local, completes
+    // with the whole block or null if failed, the client is answered in both cases
+    private CompletableFuture<byte[]> streamBlock() {
+        LOG.debug("[streamBlock] block={}", pcPath);
+        S3AsyncClient s3Client = S3ClientCache.buildS3AsyncClient(stsInfo, false);
+        BlockTransformer transformer = new BlockTransformer();
+        return s3Client.getObject(buildGetObjectRequest(stsInfo, pcPath, blockSize), transformer).handle((data, e) -> {
+            if (e != null) {
+                transformer.fail(e);
                 return null;
             }
             return data;
+        });
+    }
 
-        } catch (IOException e) {
-            LOG.error("[downloadBlock] exception to download block {}！", pcPath, e);
+    /**
+     * Receives the block from the async client. The requested range is forwarded to the
+     * client chunk by chunk, and the next chunk is requested once the channel can take it,
+     * so a slow client doesn't pile up the block in the outbound buffer.
+     */
+    private class BlockTransformer implements AsyncResponseTransformer<GetObjectResponse, byte[]> {
+        private CompletableFuture<byte[]> future;
+        private boolean headerSent = false;
+        private byte[] data;
+        private long start;
+        private long end;
+        private int pos;
+
+        @Override
+        public CompletableFuture<byte[]> prepare() {
+            future = new CompletableFuture<>();
+            if (headerSent) {
+                // a retry can't resume a response which is partly sent
+                future.completeExceptionally(new IOException("block " + pcPath + " can't be resumed"));
+            }
+            return future;
         }
-        return null;
+
+        @Override
+        public void onResponse(GetObjectResponse response) {
+            if (future.isDone()) {
+                return;
+            }
+            long blockLength = response.contentLength();
+            start = Math.min(offset, blockLength);
+            long contentLength = dataSize == 0 ? blockLength - start : Math.min(dataSize, blockLength - start);
+            end = start + contentLength;
+            data = new byte[(int) blockLength];
+            pos = 0;
+
+            HttpResponse httpResponse = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+            HttpUtil.setContentLength(httpResponse, contentLength);
+            httpResponse.headers().set(HttpHeaderNames.CONTENT_TYPE, "application/octet-stream");
+            httpResponse.headers().set("X-CACHE-HIT", PcpBlockStatus.HIT_REMOTE.getValue());
+            ctx.writeAndFlush(httpResponse);
+            headerSent = true;
+        }
+
+        @Override
+        public void onStream(SdkPublisher<ByteBuffer> publisher) {
+            publisher.subscribe(new Subscriber<ByteBuffer>() {
+                private Subscription subscription;
+
+                @Override
+                public void onSubscribe(Subscription s) {
+                    subscription = s;
+                    if (future.isDone()) {
+                        s.cancel();
+                        return;
+                    }
+                    s.request(1);
+                }
+
+                @Override
+                public void onNext(ByteBuffer buffer) {
+                    int len = buffer.remaining();
+                    if (pos + len > data.length) {
+                        subscription.cancel();
+                        future.completeExceptionally(new IOException("block " + pcPath
+                                + " is longer than " + data.length));
+                        return;
+                    }
+                    int chunkPos = pos;
+                    buffer.get(data, chunkPos, len);
+                    pos += len;
+
+                    // the filled part of the array never changes, so it's sent without copy
+                    long from = Math.max(chunkPos, start);
+                    long to = Math.min(chunkPos + len, end);
+                    if (from >= to) {
+                        subscription.request(1);
+                        return;
+                    }
+                    ChannelFuture written = ctx.writeAndFlush(new DefaultHttpContent(
+                            Unpooled.wrappedBuffer(data, (int) from, (int) (to - from))));
+                    if (ctx.channel().isWritable()) {
+                        subscription.request(1);
+                    } else {
+                        // the cache is still filled if the client is gone
+                        written.addListener(f -> subscription.request(1));
+                    }
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    future.completeExceptionally(t);
+                }
+
+                @Override
+                public void onComplete() {
+                    if (pos != data.length) {
+                        future.completeExceptionally(new IOException("failed to download block " + pcPath
+                                + ", bytesRead=" + pos + " contentLength=" + data.length));
+                        return;
+                    }
+                    ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+                    saveLocal();
+                    future.complete(data);
+                }
+            });
+        }
+
+        // the whole block is in memory, the writer saves it to a file or a segment off the I/O thread
+        private void saveLocal() {
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, data.length);
+            DiskWriter.instance().write(pcPath.toString(), localFile, data, crc.getValue());
+        }
+
+        @Override
+        public void exceptionOccurred(Throwable error) {
+            if (future != null) {
+                future.completeExceptionally(error);
+            }
+        }
+
+        // answer the client of the failed download
+        void fail(Throwable e) {
+            LOG.error("[streamBlock] exception to download block {}！", pcPath, e);
+            if (headerSent) {
+                // the header is sent, closing tells the client the body is incomplete
+                ctx.writeAndFlush(Unpooled.EMPTY_BUFFER).addListener(ChannelFutureListener.CLOSE);
+            } else {
+                sendError(ctx, isNotFound(e) ? NOT_FOUND : INTERNAL_SERVER_ERROR);
+            }
+        }
+    }
+
+    private static boolean isNotFound(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        return cause instanceof S3Exception && ((S3Exception) cause).statusCode() == 404;
     }
 }
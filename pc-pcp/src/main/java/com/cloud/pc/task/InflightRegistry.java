@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2025 Yangagile. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloud.pc.task;
+
+import com.cloud.pc.model.PcpBlockStatus;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Blocks being fetched or written right now. Only the first request of a block does
+ * the work, the others wait on its flight and are answered with its result.
+ */
+public class InflightRegistry {
+    private static final InflightRegistry instance = new InflightRegistry();
+
+    private final ConcurrentHashMap<String, CompletableFuture<Result>> flights = new ConcurrentHashMap<>();
+
+    public static InflightRegistry instance() {
+        return instance;
+    }
+
+    // register the flight of the block, returns the flight already in progress or null if the caller leads
+    public CompletableFuture<Result> join(String blockPath, CompletableFuture<Result> flight) {
+        return flights.putIfAbsent(blockPath, flight);
+    }
+
+    // finish the flight, a null result fails the waiting requests
+    public void complete(String blockPath, CompletableFuture<Result> flight, Result result) {
+        flights.remove(blockPath, flight);
+        flight.complete(result);
+    }
+
+    public int size() {
+        return flights.size();
+    }
+
+    public static class Result {
+        private final byte[] data;
+        // local file of the block if the data wasn't read into memory
+        private final String file;
+        private final PcpBlockStatus status;
+
+        public Result(byte[] data, PcpBlockStatus status) {
+            this(data, null, status);
+        }
+
+        public Result(byte[] data, String file, PcpBlockStatus status) {
+            this.data = data;
+            this.file = file;
+            this.status = status;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public String getFile() {
+            return file;
+        }
+
+        public PcpBlockStatus getStatus() {
+            return status;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2025 Yangagile. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloud.pc.task;
+
+import com.cloud.pc.cache.BlockCache;
+import com.cloud.pc.cache.CountMinSketch;
+import com.cloud.pc.config.Envs;
+import com.cloud.pc.disk.DiskEntry;
+import com.cloud.pc.disk.DiskIndex;
+import com.cloud.pc.disk.SegmentStore;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Reads blocks served from disk into the memory cache in background, off the path of
+ * the response. Promotions are dropped when the queue is full. A block read only in part
+ * takes the memory of the whole block, so it's admitted only once it's read often.
+ */
+public class MemoryPromoter {
+    private static final Logger LOG = LoggerFactory.getLogger(MemoryPromoter.class);
+
+    private static final ThreadPoolExecutor promoteExecutor =
+            new ThreadPoolExecutor(1, 1, 0L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(Envs.diskPromoteQueueSize),
+                    new DefaultThreadFactory("Promote-Thread"),
+                    new ThreadPoolExecutor.DiscardPolicy());
+    // how often blocks are read in part
+    private static final CountMinSketch partialReads = new CountMinSketch(1 << 16, Envs.TinyLfuDecayPeriod);
+
+    // whether the block read by a request goes to memory
+    public static boolean admit(String blockPath, boolean partial) {
+        if (!partial) {
+            return true;
+        }
+        synchronized (partialReads) {
+            partialReads.increment(blockPath.hashCode());
+            return partialReads.frequency(blockPath.hashCode()) >= Envs.partialAdmitCount;
+        }
+    }
+
+    public static void promote(String blockPath, DiskEntry entry) {
+        if (!Envs.diskPromoteMemory) {
+            return;
+        }
+        promoteExecutor.execute(() -> {
+            if (BlockCache.instance().containsBlock(blockPath) || entry.getSize() > Integer.MAX_VALUE) {
+                return;
+            }
+            int size = (int) entry.getSize();
+            ByteBuf blockData = Envs.BlockCachePooled
+                    ? PooledByteBufAllocator.DEFAULT.directBuffer(size, size) : Unpooled.buffer(size, size);
+            try {
+                SegmentStore.readBlock(entry, blockData.nioBuffer(0, size));
+                blockData.writerIndex(size);
+                if (entry.getCrc() != 0) {
+                    CRC32 crc = new CRC32();
+                    crc.update(blockData.nioBuffer());
+                    if (crc.getValue() != entry.getCrc()) {
+                        LOG.error("[promote] block {} in local {} is corrupted, crc:{} expected:{}",
+                                blockPath, entry.getLocation(), crc.getValue(), entry.getCrc());
+                        if (DiskIndex.instance().remove(blockPath, entry)) {
+                            SegmentStore.deleteBlock(entry);
+                        }
+                        return;
+                    }
+                }
+                // the cache takes over the buffer without copy
+                BlockCache.instance().putBlock(blockPath, blockData.retain());
+            } catch (IOException e) {
+                LOG.warn("[promote] failed to read block {} from local {}", blockPath, entry.getLocation(), e);
+            } finally {
+                blockData.release();
+            }
+        });
+    }
+}
@@ -17,48 +17,91 @@
 package com.cloud.pc.task;
 
 import com.cloud.pc.cache.BlockCache;
+import com.cloud.pc.config.Envs;
+import com.cloud.pc.disk.DiskEntry;
+import com.cloud.pc.disk.DiskIndex;
+import com.cloud.pc.disk.DiskVolumes;
+import com.cloud.pc.disk.DiskWriter;
+import com.cloud.pc.disk.SegmentStore;
 import com.cloud.pc.model.CacheLayer;
 import com.cloud.pc.model.PcpBlockStatus;
+import com.cloud.pc.upload.UploadRecord;
+import com.cloud.pc.upload.WriteBackUploader;
+import com.cloud.pc.utils.ComUtils;
 import com.cloud.pc.utils.FileUtils;
 import com.cloud.pc.utils.HttpHelper;
 import com.cloud.pc.utils.JsonUtils;
-import com.cloud.pc.utils.S3ClientCache;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.LastHttpContent;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import software.amazon.awssdk.core.sync.RequestBody;
-import software.amazon.awssdk.services.s3.S3Client;
-import software.amazon.awssdk.services.s3.model.PutObjectRequest;
-import software.amazon.awssdk.services.s3.model.PutObjectResponse;
-import software.amazon.awssdk.services.s3.model.UploadPartRequest;
-import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
 
 import static com.cloud.pc.utils.HttpHelper.sendError;
 
+/**
+ * Upload of a block. The body is taken chunk by chunk from the event loop, copied to the
+ * local file and to memory if the write layer has the memory tier, and streamed to S3 by
+ * the async client. If the streamed upload fails it's retried from the local copy.
+ * In write back mode the block is acked once it's synced to local disk, with its MD5 as
+ * ETag, and uploaded in background by the write back uploader. A small block is kept in
+ * memory and appended to a segment once complete, instead of a local file of its own.
+ */
 public class PutTask extends BaseTask {
     private static final Logger LOG = LoggerFactory.getLogger(PutTask.class);
+    private static final int RETRY_COUNT = 2;
 
-    public byte[] blockData;
+    public long contentLength;
     public Map<String, String> userMetas;
     public String uploadId;
     public CacheLayer cacheLayer;
+    private final byte[] memData;
+    private final BodyPublisher body;
+    private final LocalWriter local;
+    private final CompletableFuture<Void> bodyFuture = new CompletableFuture<>();
+    private final AtomicLong bufferedBytes = new AtomicLong();
+    private final AtomicBoolean responded = new AtomicBoolean(false);
+    private final CRC32 crc = new CRC32();
+    private final boolean writeBack;
+    private final boolean toSegment;
+    private final MessageDigest md5;
+    private CompletableFuture<InflightRegistry.Result> flight;
+    // touched on the event loop only
+    private long received = 0;
+    private boolean bodyEnded = false;
 
-    public PutTask(ChannelHandlerContext ctx, FullHttpRequest request) {
+    public PutTask(ChannelHandlerContext ctx, HttpRequest request) {
         super(ctx,request);
 
-        blockData = new byte[request.content().readableBytes()];
-        request.content().readBytes(blockData);
-        long expectedLength = Integer.parseInt(request.headers().get("Content-Length"));
-        if (blockData.length != expectedLength) {
+        contentLength = HttpUtil.getContentLength(request, -1L);
+        if (contentLength < 0) {
             throw new RuntimeException("invalid content length");
         }
         String strUserMeta = request.headers().get("X-USER-META");
@@ -72,100 +115,465 @@ public class PutTask extends BaseTask {
         } else {
             cacheLayer = new CacheLayer(CacheLayer.ALL);
         }
+
+        writeBack = Envs.putWriteBack && cacheLayer.maxLayer() == CacheLayer.DISK
+                && WriteBackUploader.instance() != null;
+        try {
+            md5 = writeBack ? MessageDigest.getInstance("MD5") : null;
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+
+        // write back blocks are uploaded from their own file
+        toSegment = !writeBack && SegmentStore.instance() != null && SegmentStore.instance().accepts(contentLength);
+        if ((cacheLayer.hasLayer(CacheLayer.MEMORY) || toSegment) && contentLength <= Integer.MAX_VALUE) {
+            memData = new byte[(int) contentLength];
+        } else {
+            memData = null;
+        }
+        body = new BodyPublisher(contentLength, this::consumed);
+        // the constructor runs on the event loop, the local file is set up on the pool of the data dir
+        local = new LocalWriter();
+        local.onDisk(local::open);
+
+        // GETs of the block wait until it's written to local
+        flight = new CompletableFuture<>();
+        if (InflightRegistry.instance().join(pcPath.toString(), flight) != null) {
+            flight = null;
+        }
+        if (contentLength == 0) {
+            endBody();
+        }
+    }
+
+    // called on the event loop for every chunk of the request body
+    public void offer(HttpContent content) {
+        ByteBuf buf = content.content();
+        int n = (int) Math.min(buf.readableBytes(), contentLength - received);
+        if (n > 0 && !bodyEnded) {
+            ByteBuffer chunk;
+            if (memData != null) {
+                // the filled part of the array never changes, so the upload reads it without copy
+                buf.getBytes(buf.readerIndex(), memData, (int) received, n);
+                chunk = ByteBuffer.wrap(memData, (int) received, n).slice();
+            } else {
+                chunk = ByteBuffer.allocate(n);
+                buf.getBytes(buf.readerIndex(), chunk);
+                chunk.flip();
+            }
+            crc.update(chunk.duplicate());
+            if (writeBack) {
+                // nothing is streamed to remote
+                md5.update(chunk.duplicate());
+                hold(n);
+                local.write(chunk, received);
+            } else {
+                hold(2L * n);
+                local.write(chunk.duplicate(), received);
+                body.offer(chunk);
+            }
+            received += n;
+        }
+        if (received == contentLength) {
+            endBody();
+        } else if (content instanceof LastHttpContent) {
+            abortBody(new IOException("request body of " + pcPath + " ends at " + received
+                    + " expected " + contentLength));
+        }
+    }
+
+    // the client is gone or the task can't run
+    public void abort() {
+        abortBody(new IOException("request body of " + pcPath + " aborted at " + received));
+        finish();
     }
 
     @Override
     public void run() {
-        int retryCount = 3;
-        while (retryCount > 0) {
-            try {
-                BlockCache.instance().putBlock(pcPath.toString(), blockData);
-                if (cacheLayer.maxLayer() == CacheLayer.MEMORY) {
-                    ctx.executor().execute(() -> {
-                        HttpHelper.sendResponse(ctx, HttpResponseStatus.OK,
-                                PcpBlockStatus.HIT_MEMORY.getValue(), "memory");
-                    });
+        if (writeBack) {
+            bodyFuture.whenComplete((v, e) -> {
+                if (e != null) {
+                    LOG.error("incomplete body of {} expected:{}", pcPath, contentLength, e);
+                    respondError(HttpResponseStatus.BAD_REQUEST);
+                    finish();
+                } else if (!local.hasCopy() || !writeBack()) {
+                    // upload it now, from memory if there is no local copy
+                    retryFromLocal(RETRY_COUNT);
                 }
+            });
+            return;
+        }
+        upload(body).whenComplete((eTag, e) -> {
+            if (e == null) {
+                onUploaded(eTag);
+                finish();
+                return;
+            }
+            LOG.warn("exception to stream {} size:{} to remote, retry from local", pcPath, contentLength, e);
+            // the SDK may have failed before it subscribed, the queued chunks would hold reading off
+            body.abort(e);
+            // wait for the rest of the body, then retry with the local copy
+            ctx.executor().schedule(() -> abortBody(new TimeoutException("timeout waiting for request body of "
+                    + pcPath)), Envs.putBodyTimeout, TimeUnit.MILLISECONDS);
+            retryFromLocal(RETRY_COUNT);
+        });
+    }
 
-                // save to disk
-                saveToDisk(localFile);
-                if (cacheLayer.maxLayer() == CacheLayer.DISK) {
-                    ctx.executor().execute(() -> {
-                        HttpHelper.sendResponse(ctx, HttpResponseStatus.OK,
-                                PcpBlockStatus.HIT_DISK.getValue(), "disk");
-                    });
+    private void retryFromLocal(int retryCount) {
+        bodyFuture.whenComplete((v, e) -> {
+            if (e != null) {
+                LOG.error("incomplete body of {} expected:{}", pcPath, contentLength, e);
+                respondError(HttpResponseStatus.BAD_REQUEST);
+                finish();
+                return;
+            }
+            AsyncRequestBody replay = replayBody();
+            if (replay == null) {
+                LOG.error("no local copy of {} to retry", pcPath);
+                respondError(HttpResponseStatus.INTERNAL_SERVER_ERROR);
+                finish();
+                return;
+            }
+            upload(replay).whenComplete((eTag, e2) -> {
+                if (e2 == null) {
+                    onUploaded(eTag);
+                    finish();
+                    return;
                 }
-
-                String eTag;
-                if (pcPath.isSingleFile()) {
-                    eTag = uploadFullFile();
-                    LOG.debug("successfully to put key:{} size:{} retryCount:{} return etag:{}",
-                            pcPath.getKey(), blockData.length, retryCount, eTag);
+                LOG.error("exception to put {} size{} retryCount:{}", pcPath, contentLength, retryCount, e2);
+                if (retryCount > 1) {
+                    retryFromLocal(retryCount - 1);
                 } else {
-                    eTag = uploadPart();
-                    LOG.debug("successfully to put key:{} number:{}/{} size{} uploadId:{} retryCount:{} return etag:{}",
-                            pcPath.getKey(), pcPath.getNumber(), pcPath.getTotalNumber(),
-                            blockData.length, uploadId, retryCount, eTag);
+                    respondError(HttpResponseStatus.INTERNAL_SERVER_ERROR);
+                    finish();
                 }
+            });
+        });
+    }
 
-                // response to client and back to EventLoop thread
-                if (cacheLayer.maxLayer() == CacheLayer.REMOTE) {
-                    ctx.executor().execute(() -> {
-                        HttpHelper.sendResponse(ctx, HttpResponseStatus.OK,
-                                PcpBlockStatus.HIT_REMOTE.getValue(), eTag);
-                    });
-                }
-                return;
-            } catch (Exception e) {
-                LOG.error("exception to put {} size{} retryCount:{}",
-                        pcPath, blockData.length, retryCount, e);
-                retryCount--;
+    // owe the upload to the write back uploader and ack the client, false if it can't be recorded
+    private boolean writeBack() {
+        String md5Hex = ComUtils.bytesToHex(md5.digest()).toLowerCase();
+        try {
+            UploadRecord record = new UploadRecord(WriteBackUploader.instance().nextId(), pcPath.toString(),
+                    localFile, contentLength, md5Hex, JsonUtils.toJson(stsInfo), uploadId,
+                    userMetas == null ? null : JsonUtils.toJson(userMetas));
+            WriteBackUploader.instance().submit(record);
+        } catch (IOException e) {
+            LOG.error("exception to record write back of {}, upload it now", pcPath, e);
+            // it was indexed pinned for the upload which isn't owed now
+            DiskEntry entry = DiskIndex.instance().peek(pcPath.toString());
+            if (entry != null && entry.getLocation().equals(localFile)) {
+                entry.setPinned(false);
             }
+            return false;
+        }
+        LOG.debug("write back key:{} number:{}/{} size:{} uploadId:{} md5:{}", pcPath.getKey(),
+                pcPath.getNumber(), pcPath.getTotalNumber(), contentLength, uploadId, md5Hex);
+        // the same ETag S3 gives to the block
+        respond(PcpBlockStatus.HIT_DISK, "\"" + md5Hex + "\"");
+        finish();
+        return true;
+    }
+
+    private AsyncRequestBody replayBody() {
+        if (memData != null) {
+            return AsyncRequestBody.fromBytes(memData);
         }
-        ctx.executor().execute(() -> {
-            sendError(ctx, HttpResponseStatus.INTERNAL_SERVER_ERROR);
+        if (local.hasCopy()) {
+            return AsyncRequestBody.fromFile(Paths.get(localFile));
+        }
+        return null;
+    }
+
+    private void onUploaded(String eTag) {
+        if (pcPath.isSingleFile()) {
+            LOG.debug("successfully to put key:{} size:{} return etag:{}",
+                    pcPath.getKey(), contentLength, eTag);
+        } else {
+            LOG.debug("successfully to put key:{} number:{}/{} size{} uploadId:{} return etag:{}",
+                    pcPath.getKey(), pcPath.getNumber(), pcPath.getTotalNumber(),
+                    contentLength, uploadId, eTag);
+        }
+        // no-op if the client got an early ack from memory or disk
+        respond(PcpBlockStatus.HIT_REMOTE, eTag);
+    }
+
+    private void finish() {
+        // the rest of a body which isn't wanted any more is read and dropped
+        ctx.channel().config().setAutoRead(true);
+        bodyFuture.whenComplete((v, e) -> {
+            if (flight != null && !flight.isDone()) {
+                InflightRegistry.instance().complete(pcPath.toString(), flight, null);
+            }
         });
     }
 
-    private String uploadPart() {
-        UploadPartRequest uploadRequest = UploadPartRequest.builder()
-                .bucket(stsInfo.getBucketName())
-                .key(pcPath.getKey())
-                .uploadId(uploadId)
-                .partNumber((int)pcPath.getNumber()+1)
-                .build();
+    // whole body received, the local copy completes once its writes are done
+    private void endBody() {
+        if (bodyEnded) {
+            return;
+        }
+        bodyEnded = true;
+        body.end();
+        local.finish();
+    }
 
-        S3Client s3Client = S3ClientCache.buildS3Client(stsInfo, false);
-        UploadPartResponse response = s3Client.uploadPart(
-                uploadRequest,
-                RequestBody.fromBytes(blockData)
-        );
-        return response.eTag();
+    private void abortBody(Throwable cause) {
+        if (!ctx.executor().inEventLoop()) {
+            ctx.executor().execute(() -> abortBody(cause));
+            return;
+        }
+        if (bodyEnded) {
+            return;
+        }
+        bodyEnded = true;
+        body.abort(cause);
+        local.abort();
     }
 
-    private String uploadFullFile() {
-        PutObjectRequest.Builder builder = PutObjectRequest.builder();
-        PutObjectRequest putObjectRequest = builder.bucket(stsInfo.getBucketName())
-                .contentLength((long)(blockData.length))
-                .metadata(userMetas)
-                .key(pcPath.getKey()).build();
+    // the whole body is received and the local copy is done or failed
+    private void onBodyComplete() {
+        if (received != contentLength) {
+            bodyFuture.completeExceptionally(new IOException("request body of " + pcPath + " ends at "
+                    + received + " expected " + contentLength));
+            return;
+        }
+        if (memData != null && cacheLayer.hasLayer(CacheLayer.MEMORY)) {
+            BlockCache.instance().putBlock(pcPath.toString(), memData);
+            if (cacheLayer.maxLayer() == CacheLayer.MEMORY) {
+                respond(PcpBlockStatus.HIT_MEMORY, "memory");
+            }
+        }
+        boolean onDisk = local.hasCopy();
+        if (flight != null && !flight.isDone()) {
+            InflightRegistry.instance().complete(pcPath.toString(), flight,
+                    new InflightRegistry.Result(memData, onDisk && !toSegment ? localFile : null,
+                            PcpBlockStatus.HIT_DISK));
+        }
+        if (onDisk && cacheLayer.maxLayer() == CacheLayer.DISK && !writeBack) {
+            respond(PcpBlockStatus.HIT_DISK, "disk");
+        }
+        bodyFuture.complete(null);
+    }
 
-        S3Client s3Client = S3ClientCache.buildS3Client(stsInfo, false);
-        RequestBody requestBody = RequestBody.fromBytes(blockData);
-            PutObjectResponse response = s3Client.putObject(putObjectRequest, requestBody);
-        return response.eTag();
+    // reading from the socket pauses while the upload or the local copy lags behind
+    private void hold(long bytes) {
+        if (bufferedBytes.addAndGet(bytes) > Envs.putBufferSize) {
+            ctx.channel().config().setAutoRead(false);
+        }
     }
 
-    private void saveToDisk(String filePath) {
+    private void consumed(long bytes) {
+        if (bufferedBytes.addAndGet(-bytes) <= Envs.putBufferSize / 2 && !ctx.channel().config().isAutoRead()) {
+            ctx.channel().config().setAutoRead(true);
+        }
+    }
+
+    private CompletableFuture<String> upload(AsyncRequestBody requestBody) {
         try {
-            // save to disk
-            FileUtils.mkParentDir(Paths.get(filePath));
-            File outputFile = new File(filePath);
-            try (FileOutputStream fos = new FileOutputStream(outputFile)) {
-                fos.write(blockData);
-            }
-        } catch (IOException e ) {
-            LOG.error("exception to save to local! localFilePath:{} size:{}", filePath, blockData.length, e);
+            return WriteBackUploader.upload(stsInfo, pcPath, uploadId, userMetas, contentLength, null, requestBody);
+        } catch (Exception e) {
+            CompletableFuture<String> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+    }
+
+    private void respond(PcpBlockStatus status, String message) {
+        if (responded.compareAndSet(false, true)) {
+            ctx.executor().execute(() -> {
+                HttpHelper.sendResponse(ctx, HttpResponseStatus.OK, status.getValue(), message);
+            });
+        }
+    }
+
+    private void respondError(HttpResponseStatus status) {
+        if (responded.compareAndSet(false, true)) {
+            ctx.executor().execute(() -> {
+                sendError(ctx, status);
+            });
+        } else {
+            LOG.error("failed to put {} after the client was answered", pcPath);
+        }
+    }
+
+    /**
+     * Local copy of the block, written asynchronously at the offset of each chunk to a temp
+     * file, which the disk writer renames to the block file once it's complete. Chunks received
+     * before the temp file is open wait for it, they are held back by the put buffer.
+     */
+    private class LocalWriter {
+        private final String temp = DiskWriter.tempFile(localFile);
+        private AsynchronousFileChannel channel;
+        // one for every write in progress, one for the open and one for the body released at its end
+        private final AtomicInteger pending = new AtomicInteger(2);
+        private volatile boolean failed = false;
+        // chunks received before the open is done, null after, guarded by this
+        private List<Chunk> queued = new ArrayList<>();
+
+        // runs on the pool of the data dir
+        void open() {
+            // the file is overwritten, it can't be served from disk until complete
+            DiskEntry old = DiskIndex.instance().remove(pcPath.toString());
+            try {
+                if (old != null && (toSegment || !old.getLocation().equals(localFile))) {
+                    // the old copy is on another data dir or not replaced by a file
+                    SegmentStore.deleteBlock(old);
+                }
+                if (!toSegment && !failed) {
+                    FileUtils.mkParentDir(Paths.get(temp));
+                    channel = AsynchronousFileChannel.open(Paths.get(temp), StandardOpenOption.WRITE,
+                            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+                }
+            } catch (IOException | RuntimeException e) {
+                LOG.error("exception to save to local! localFilePath:{} size:{}", localFile, contentLength, e);
+                failed = true;
+            }
+            List<Chunk> chunks;
+            synchronized (this) {
+                chunks = queued;
+                queued = null;
+            }
+            for (Chunk chunk : chunks) {
+                if (failed) {
+                    consumed(chunk.buffer.remaining());
+                    release();
+                } else {
+                    writeAt(chunk.buffer, chunk.position, chunk.buffer.remaining());
+                }
+            }
+            release();
+        }
+
+        boolean hasCopy() {
+            return !failed;
+        }
+
+        void write(ByteBuffer buffer, long position) {
+            if (failed || toSegment) {
+                consumed(buffer.remaining());
+                return;
+            }
+            pending.incrementAndGet();
+            synchronized (this) {
+                if (queued != null) {
+                    queued.add(new Chunk(buffer, position));
+                    return;
+                }
+            }
+            writeAt(buffer, position, buffer.remaining());
+        }
+
+        private void writeAt(ByteBuffer buffer, long position, int size) {
+            try {
+                channel.write(buffer, position, null, new CompletionHandler<Integer, Void>() {
+                    @Override
+                    public void completed(Integer written, Void attachment) {
+                        if (buffer.hasRemaining()) {
+                            writeAt(buffer, position + written, size);
+                            return;
+                        }
+                        consumed(size);
+                        release();
+                    }
+
+                    @Override
+                    public void failed(Throwable e, Void attachment) {
+                        writeFailed(e, size);
+                    }
+                });
+            } catch (RuntimeException e) {
+                writeFailed(e, size);
+            }
+        }
+
+        private void writeFailed(Throwable e, int size) {
+            if (!failed) {
+                LOG.error("exception to save to local! localFilePath:{} size:{}", localFile, contentLength, e);
+            }
+            failed = true;
+            consumed(size);
+            release();
+        }
+
+        void finish() {
+            release();
+        }
+
+        void abort() {
+            failed = true;
+            release();
+        }
+
+        private void release() {
+            if (pending.decrementAndGet() > 0) {
+                return;
+            }
+            if (toSegment) {
+                saveSegment();
+                return;
+            }
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    LOG.error("exception to close local file:{}", temp, e);
+                    failed = true;
+                }
+            }
+            if (failed || received != contentLength) {
+                new File(temp).delete();
+                onBodyComplete();
+                return;
+            }
+            // acked from disk in write back mode, so it's synced with the batch of the writer
+            DiskWriter.instance().publish(pcPath.toString(), temp, localFile, contentLength, crc.getValue(),
+                            writeBack, writeBack)
+                    .whenComplete((v, e) -> {
+                        if (e != null) {
+                            LOG.error("exception to publish local file:{}", localFile, e);
+                            failed = true;
+                        }
+                        // off the writer thread, write back records its upload
+                        onDisk(PutTask.this::onBodyComplete);
+                    });
+        }
+
+        // the body is in memory, appended on the pool of the data dir
+        private void saveSegment() {
+            if (failed || received != contentLength) {
+                onBodyComplete();
+                return;
+            }
+            onDisk(() -> {
+                try {
+                    SegmentStore.instance().put(pcPath.toString(), memData, 0, memData.length, crc.getValue());
+                } catch (IOException | RuntimeException e) {
+                    LOG.error("exception to save {} size:{} to segment", pcPath, contentLength, e);
+                    failed = true;
+                }
+                onBodyComplete();
+            });
+        }
+
+        // run on the pool of the data dir, or right here if it's full
+        void onDisk(Runnable task) {
+            try {
+                DiskVolumes.instance().executorFor(pcPath.toString(), localFile).execute(task);
+            } catch (RejectedExecutionException e) {
+                task.run();
+            }
+        }
+    }
+
+    private static class Chunk {
+        private final ByteBuffer buffer;
+        private final long position;
+
+        Chunk(ByteBuffer buffer, long position) {
+            this.buffer = buffer;
+            this.position = position;
         }
     }
 }
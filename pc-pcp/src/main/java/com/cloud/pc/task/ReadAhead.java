@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2025 Yangagile. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloud.pc.task;
+
+import com.cloud.pc.cache.BlockCache;
+import com.cloud.pc.config.Envs;
+import com.cloud.pc.disk.DiskIndex;
+import com.cloud.pc.disk.DiskVolumes;
+import com.cloud.pc.disk.DiskWriter;
+import com.cloud.pc.model.PcPath;
+import com.cloud.pc.model.PcpBlockStatus;
+import com.cloud.pc.model.StsInfo;
+import com.cloud.pc.pulse.PcpRing;
+import com.cloud.pc.utils.S3ClientCache;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+
+/**
+ * Read ahead of objects read block by block in order, as tracked by the stream tracker. A PCP
+ * only fetches the following blocks which hash to itself. The window adapts to how many
+ * prefetched blocks are read, it shrinks and at last pauses when few are.
+ */
+public class ReadAhead {
+    private static final Logger LOG = LoggerFactory.getLogger(ReadAhead.class);
+
+    // prefetched blocks read or not in time, counted before the window is adjusted
+    private static final int SAMPLE_SIZE = 64;
+    private static final double LOW_HIT_RATE = 0.3;
+    private static final double HIGH_HIT_RATE = 0.7;
+    // a prefetched block not read in the time is wasted
+    private static final long HIT_TIMEOUT = 10 * 60 * 1000L;
+    private static final long PAUSE_TIME = 60 * 1000L;
+
+    private static final ReadAhead instance = new ReadAhead(Envs.readAheadWindow, Envs.readAheadTrigger,
+            StreamTracker.instance(), key -> PcpRing.instance().owns(key));
+
+    private final int maxWindow;
+    private final int trigger;
+    private final StreamTracker streams;
+    private final Predicate<String> owner;
+    // prefetched blocks not read yet, in order of prefetch
+    private final LinkedHashMap<String, Long> prefetched = new LinkedHashMap<>();
+    private final int maxPrefetched;
+    private final Semaphore permits = new Semaphore(Envs.readAheadConcurrency);
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(256), new DefaultThreadFactory("ReadAhead-Thread", true, Thread.MIN_PRIORITY),
+            new ThreadPoolExecutor.DiscardPolicy());
+    private final AtomicLong issuedCount = new AtomicLong();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong wasteCount = new AtomicLong();
+    // guarded by prefetched
+    private int window;
+    private int sampleHits;
+    private int sampleCount;
+    private long pausedUntil;
+
+    public static ReadAhead instance() {
+        return instance;
+    }
+
+    ReadAhead(int maxWindow, int trigger, StreamTracker streams, Predicate<String> owner) {
+        this.maxWindow = maxWindow;
+        this.trigger = trigger;
+        this.streams = streams;
+        this.owner = owner;
+        this.window = Math.max(1, maxWindow / 2);
+        this.maxPrefetched = streams.getMaxStreams() * Math.max(1, maxWindow);
+    }
+
+    // a client reads the block after the stream tracker saw it, the following blocks are fetched
+    // in background if it's a sequential read
+    public void onRead(PcPath pcPath, StsInfo stsInfo, long blockSize) {
+        if (!Envs.readAheadEnable) {
+            return;
+        }
+        for (PcPath next : plan(pcPath)) {
+            executor.execute(() -> prefetch(next, stsInfo, blockSize));
+        }
+    }
+
+    // the blocks to read ahead after the block, counts a prefetched block as read
+    List<PcPath> plan(PcPath pcPath) {
+        recordRead(pcPath.toString());
+        if (pcPath.isSingleFile()) {
+            return Collections.emptyList();
+        }
+        int curWindow = currentWindow();
+        if (streams.run(pcPath) < trigger || curWindow == 0) {
+            return Collections.emptyList();
+        }
+        long to = Math.min(pcPath.getTotalNumber() - 1, pcPath.getNumber() + curWindow);
+        long from = streams.claim(pcPath, to);
+        List<PcPath> blocks = new ArrayList<>();
+        for (long i = from; i <= to; i++) {
+            // the key the clients hash the block with
+            if (owner.test(pcPath.getKey() + i)) {
+                blocks.add(new PcPath(pcPath.getBucket(), pcPath.getKey(), i, pcPath.getTotalNumber()));
+            }
+        }
+        return blocks;
+    }
+
+    private int currentWindow() {
+        synchronized (prefetched) {
+            if (window == 0 && System.currentTimeMillis() >= pausedUntil) {
+                // try again after the pause
+                window = 1;
+            }
+            return window;
+        }
+    }
+
+    private void recordRead(String blockPath) {
+        synchronized (prefetched) {
+            if (prefetched.remove(blockPath) != null) {
+                hitCount.incrementAndGet();
+                sample(true);
+            }
+        }
+    }
+
+    void recordPrefetched(String blockPath) {
+        long now = System.currentTimeMillis();
+        synchronized (prefetched) {
+            prefetched.put(blockPath, now);
+            Iterator<Long> it = prefetched.values().iterator();
+            while (it.hasNext()) {
+                long time = it.next();
+                if (prefetched.size() <= maxPrefetched && now - time < HIT_TIMEOUT) {
+                    break;
+                }
+                it.remove();
+                wasteCount.incrementAndGet();
+                sample(false);
+            }
+        }
+    }
+
+    private void sample(boolean hit) {
+        if (hit) {
+            sampleHits++;
+        }
+        if (++sampleCount < SAMPLE_SIZE) {
+            return;
+        }
+        double rate = (double) sampleHits / sampleCount;
+        if (rate < LOW_HIT_RATE) {
+            window /= 2;
+            if (window == 0) {
+                pausedUntil = System.currentTimeMillis() + PAUSE_TIME;
+            }
+        } else if (rate > HIGH_HIT_RATE) {
+            window = Math.min(maxWindow, Math.max(1, window * 2));
+        }
+        LOG.info("read ahead hit rate:{} window:{} issued:{} hit:{} waste:{}", rate, window,
+                issuedCount.get(), hitCount.get(), wasteCount.get());
+        sampleHits = 0;
+        sampleCount = 0;
+    }
+
+    int getWindow() {
+        synchronized (prefetched) {
+            return window;
+        }
+    }
+
+    // fetch the block to local disk and memory, requests for it meanwhile wait for it
+    private void prefetch(PcPath pcPath, StsInfo stsInfo, long blockSize) {
+        String blockPath = pcPath.toString();
+        if (BlockCache.instance().containsBlock(blockPath) || DiskIndex.instance().peek(blockPath) != null) {
+            return;
+        }
+        if (!permits.tryAcquire()) {
+            return;
+        }
+        CompletableFuture<InflightRegistry.Result> flight = new CompletableFuture<>();
+        if (InflightRegistry.instance().join(blockPath, flight) != null) {
+            permits.release();
+            return;
+        }
+        issuedCount.incrementAndGet();
+        CompletableFuture<byte[]> fetch;
+        try {
+            fetch = S3ClientCache.buildS3AsyncClient(stsInfo, false)
+                    .getObject(GetTask.buildGetObjectRequest(stsInfo, pcPath, blockSize),
+                            AsyncResponseTransformer.toBytes())
+                    .thenApply(response -> response.asByteArray());
+        } catch (Exception e) {
+            fetch = new CompletableFuture<>();
+            fetch.completeExceptionally(e);
+        }
+        fetch.whenComplete((data, e) -> {
+            InflightRegistry.Result result = null;
+            try {
+                if (e != null) {
+                    LOG.debug("failed to read ahead block {}", blockPath, e);
+                    return;
+                }
+                saveLocal(blockPath, data);
+                if (!ScanDetector.instance().bypassPrefetch(pcPath)) {
+                    BlockCache.instance().putBlock(blockPath, data);
+                }
+                recordPrefetched(blockPath);
+                result = new InflightRegistry.Result(data, PcpBlockStatus.HIT_DISK);
+            } finally {
+                InflightRegistry.instance().complete(blockPath, flight, result);
+                permits.release();
+            }
+        });
+    }
+
+    // queued to the disk writer, which saves it to a file or a segment off the I/O thread
+    private static void saveLocal(String blockPath, byte[] data) {
+        if (DiskIndex.instance().peek(blockPath) != null) {
+            // written by an upload meanwhile
+            return;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        DiskWriter.instance().write(blockPath, DiskVolumes.instance().localFile(blockPath), data, crc.getValue());
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2025 Yangagile. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cloud.pc.task;
+
+import com.cloud.pc.cache.CountMinSketch;
+import com.cloud.pc.config.Envs;
+import com.cloud.pc.model.PcPath;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Detects the blocks read by a scan, a one pass read of a large object in order, so they
+ * don't push the hot blocks out of memory. A block is read by a scan once the run of its
+ * stream in the stream tracker reaches min run. The mode of the bucket says
+ * what a scan block does on admission to memory, it's admitted anyway, bypasses memory, or
+ * is admitted only when it's read a second time.
+ */
+public class ScanDetector {
+    public enum Mode {
+        ADMIT, BYPASS, SECOND
+    }
+
+    private static final ScanDetector instance = new ScanDetector(Envs.scanMinBlocks, Envs.scanMinRun,
+            StreamTracker.instance(), Mode.valueOf(Envs.scanMode.toUpperCase()), parseModes(Envs.scanBucketModes));
+
+    private final long minBlocks;
+    private final int minRun;
+    private final StreamTracker streams;
+    private final Mode defaultMode;
+    private final Map<String, Mode> bucketModes;
+    // how often scan blocks are read
+    private final CountMinSketch touches = new CountMinSketch(1 << 16, Envs.TinyLfuDecayPeriod);
+    private final Map<String, Counters> counters = new ConcurrentHashMap<>();
+
+    private static class Counters {
+        final AtomicLong scanReads = new AtomicLong();
+        final AtomicLong bypassed = new AtomicLong();
+        final AtomicLong secondTouch = new AtomicLong();
+    }
+
+    public static ScanDetector instance() {
+        return instance;
+    }
+
+    ScanDetector(long minBlocks, int minRun, StreamTracker streams, Mode defaultMode,
+                 Map<String, Mode> bucketModes) {
+        this.minBlocks = minBlocks;
+        this.minRun = minRun;
+        this.streams = streams;
+        this.defaultMode = defaultMode;
+        this.bucketModes = bucketModes;
+    }
+
+    // comma separated bucket:mode
+    static Map<String, Mode> parseModes(String modes) {
+        Map<String, Mode> result = new HashMap<>();
+        if (modes == null || modes.trim().isEmpty()) {
+            return result;
+        }
+        for (String mode : modes.trim().split("\\s*,\\s*")) {
+            String[] cols = mode.split(":");
+            if (cols.length != 2) {
+                throw new IllegalArgumentException("invalid bucket scan mode " + mode);
+            }
+            result.put(cols[0], Mode.valueOf(cols[1].toUpperCase()));
+        }
+        return result;
+    }
+
+    public Mode modeOf(String bucket) {
+        return bucketModes.getOrDefault(bucket, defaultMode);
+    }
+
+    // a client reads the block after the stream tracker saw it, returns whether it's read by a scan
+    public boolean onRead(PcPath pcPath) {
+        if (pcPath.getTotalNumber() < minBlocks) {
+            return false;
+        }
+        boolean scan = streams.run(pcPath) >= minRun;
+        if (scan) {
+            counters(pcPath.getBucket()).scanReads.incrementAndGet();
+        }
+        return scan;
+    }
+
+    // whether the block read by a request goes to memory
+    public boolean admit(PcPath pcPath, boolean scan) {
+        if (!scan) {
+            return true;
+        }
+        Counters counter = counters(pcPath.getBucket());
+        switch (modeOf(pcPath.getBucket())) {
+            case ADMIT:
+                return true;
+            case SECOND:
+                int hash = pcPath.toString().hashCode();
+                synchronized (touches) {
+                    touches.increment(hash);
+                    if (touches.frequency(hash) >= 2) {
+                        counter.secondTouch.incrementAndGet();
+                        return true;
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+        counter.bypassed.incrementAndGet();
+        return false;
+    }
+
+    // whether a block read ahead for a scan stays out of memory, it's not a touch as no one read it yet
+    public boolean bypassPrefetch(PcPath pcPath) {
+        if (pcPath.getTotalNumber() < minBlocks || modeOf(pcPath.getBucket()) == Mode.ADMIT) {
+            return false;
+        }
+        if (streams.run(pcPath) < minRun) {
+            return false;
+        }
+        counters(pcPath.getBucket()).bypassed.incrementAndGet();
+        return true;
+    }
+
+    private Counters counters(String bucket) {
+        return counters.computeIfAbsent(bucket, b -> new Counters());
+    }
+
+    // scan reads, bypassed and second touch admitted blocks of every bucket seen
+    public Map<String, Map<String, Long>> getStats() {
+        Map<String, Map<String, Long>> stats = new TreeMap<>();
+        for (Map.Entry<String, Counters> e : counters.entrySet()) {
+            Map<String, Long> stat = new LinkedHashMap<>();
+            stat.put("scanReads", e.getValue().scanReads.get());
+            stat.put("bypassed", e.getValue().bypassed.get());
+            stat.put("secondTouch", e.getValue().secondTouch.get());
+            stats.put(e.getKey(), stat);
+        }
+        return stats;
+    }
+}
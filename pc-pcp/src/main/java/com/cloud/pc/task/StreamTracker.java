@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2025 Yangagile. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloud.pc.task;
+
+import com.cloud.pc.config.Envs;
+import com.cloud.pc.model.PcPath;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Objects read block by block in order. A client spreads the blocks of an object over the
+ * PCPs by the hash ring, so a PCP sees every few blocks of a sequential read, a read after the
+ * last one within max gap continues the run of the stream. Read ahead and the scan detector
+ * look at the same streams, the least recently read ones are dropped above max streams.
+ */
+public class StreamTracker {
+    private static final StreamTracker instance = new StreamTracker(Envs.streamMaxGap, Envs.streamCount);
+
+    private final int maxGap;
+    private final int maxStreams;
+    // guarded by itself
+    private final LinkedHashMap<String, Stream> streams;
+
+    private static class Stream {
+        long last;
+        int run = 1;
+        // the highest block number looked at for read ahead
+        long scanned;
+
+        Stream(long number) {
+            last = number;
+            scanned = number;
+        }
+    }
+
+    public static StreamTracker instance() {
+        return instance;
+    }
+
+    StreamTracker(int maxGap, int maxStreams) {
+        this.maxGap = maxGap;
+        this.maxStreams = maxStreams;
+        this.streams = new LinkedHashMap<String, Stream>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Stream> eldest) {
+                return size() > maxStreams;
+            }
+        };
+    }
+
+    // a client reads the block, returns the run of blocks read in order up to it
+    public int onRead(PcPath pcPath) {
+        if (pcPath.isSingleFile()) {
+            return 0;
+        }
+        long number = pcPath.getNumber();
+        String object = objectOf(pcPath);
+        synchronized (streams) {
+            Stream stream = streams.get(object);
+            if (stream == null) {
+                streams.put(object, new Stream(number));
+                return 1;
+            }
+            if (number > stream.last && number - stream.last <= maxGap) {
+                stream.run++;
+            } else if (number != stream.last) {
+                stream.run = 1;
+                stream.scanned = number;
+            }
+            stream.last = number;
+            return stream.run;
+        }
+    }
+
+    // the run of the stream of the object, 0 if it's not tracked
+    public int run(PcPath pcPath) {
+        synchronized (streams) {
+            Stream stream = streams.get(objectOf(pcPath));
+            return stream == null ? 0 : stream.run;
+        }
+    }
+
+    // the blocks after the block up to to are looked at for read ahead, returns the first one not looked at before
+    public long claim(PcPath pcPath, long to) {
+        synchronized (streams) {
+            Stream stream = streams.get(objectOf(pcPath));
+            if (stream == null) {
+                return to + 1;
+            }
+            long from = Math.max(pcPath.getNumber(), stream.scanned) + 1;
+            stream.scanned = Math.max(stream.scanned, to);
+            return from;
+        }
+    }
+
+    public int getMaxStreams() {
+        return maxStreams;
+    }
+
+    private static String objectOf(PcPath pcPath) {
+        return pcPath.getBucket() + "/" + pcPath.getKey();
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2025 Yangagile. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloud.pc.upload;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Journal of the uploads which are still owed to S3. A record is synced to disk before
+ * the client is acked, the mark of a finished upload isn't, losing it only uploads the
+ * block again. At startup the pending records are read back, a torn record at the end is
+ * ignored, and the journal is rewritten with them.
+ */
+public class UploadJournal {
+    private static final Logger LOG = LoggerFactory.getLogger(UploadJournal.class);
+
+    private static final String JOURNAL_FILE = "uploads.journal";
+    private static final byte OP_ADD = 1;
+    private static final byte OP_DONE = 2;
+    // rewrite the journal once this many uploads finished since the last rewrite
+    private static final int COMPACT_THRESHOLD = 1024;
+
+    private final Path dir;
+    private final Map<Long, UploadRecord> pending = new LinkedHashMap<>();
+    private FileOutputStream file;
+    private DataOutputStream out;
+    private long nextId = 1;
+    private int doneSinceCompact = 0;
+
+    public UploadJournal(Path dir) {
+        this.dir = dir;
+    }
+
+    // returns the uploads which didn't finish before the last stop
+    public synchronized List<UploadRecord> load() throws IOException {
+        Files.createDirectories(dir);
+        Path journal = dir.resolve(JOURNAL_FILE);
+        if (Files.exists(journal)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(journal)))) {
+                while (true) {
+                    byte op = in.readByte();
+                    if (op == OP_ADD) {
+                        UploadRecord record = UploadRecord.read(in);
+                        pending.put(record.getId(), record);
+                        nextId = Math.max(nextId, record.getId() + 1);
+                    } else if (op == OP_DONE) {
+                        pending.remove(in.readLong());
+                    } else {
+                        throw new EOFException("unknown op " + op);
+                    }
+                }
+            } catch (EOFException e) {
+                // end of the journal, or a record torn by a crash
+            }
+        }
+        compact();
+        LOG.info("loaded upload journal from {} pending:{}", dir, pending.size());
+        return new ArrayList<>(pending.values());
+    }
+
+    public synchronized long nextId() {
+        return nextId++;
+    }
+
+    // durable once it returns
+    public synchronized void add(UploadRecord record) throws IOException {
+        if (out == null) {
+            throw new IOException("upload journal " + dir + " is not open");
+        }
+        out.writeByte(OP_ADD);
+        record.write(out);
+        out.flush();
+        file.getFD().sync();
+        pending.put(record.getId(), record);
+    }
+
+    public synchronized void done(UploadRecord record) {
+        if (pending.remove(record.getId()) == null || out == null) {
+            return;
+        }
+        try {
+            out.writeByte(OP_DONE);
+            out.writeLong(record.getId());
+            out.flush();
+            if (++doneSinceCompact >= COMPACT_THRESHOLD) {
+                compact();
+            }
+        } catch (IOException e) {
+            LOG.error("exception to append upload journal {} record:{}", dir, record, e);
+        }
+    }
+
+    public synchronized Collection<UploadRecord> pending() {
+        return new ArrayList<>(pending.values());
+    }
+
+    public synchronized void close() {
+        closeJournal();
+    }
+
+    // write the pending records to a new journal which replaces the old one
+    private void compact() throws IOException {
+        closeJournal();
+        try {
+            Path tmp = dir.resolve(JOURNAL_FILE + ".tmp");
+            try (FileOutputStream fos = new FileOutputStream(tmp.toFile());
+                 DataOutputStream tmpOut = new DataOutputStream(new BufferedOutputStream(fos))) {
+                for (UploadRecord record : pending.values()) {
+                    tmpOut.writeByte(OP_ADD);
+                    record.write(tmpOut);
+                }
+                tmpOut.flush();
+                fos.getFD().sync();
+            }
+            Files.move(tmp, dir.resolve(JOURNAL_FILE), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            doneSinceCompact = 0;
+        } finally {
+            openJournal();
+        }
+    }
+
+    private void openJournal() throws IOException {
+        file = new FileOutputStream(dir.resolve(JOURNAL_FILE).toFile(), true);
+        out = new DataOutputStream(new BufferedOutputStream(file));
+    }
+
+    private void closeJournal() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            LOG.error("exception to close upload journal {}", dir, e);
+        }
+        out = null;
+        file = null;
+    }
+}
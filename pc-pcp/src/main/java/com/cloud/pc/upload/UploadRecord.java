@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2025 Yangagile. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloud.pc.upload;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A block acked to the client from local disk and not uploaded yet.
+ */
+public class UploadRecord {
+    private final long id;
+    private final String path;
+    private final String location;
+    private final long size;
+    // hex MD5 of the block, S3 checks the upload against it
+    private final String md5;
+    private final String sts;
+    private final String uploadId;
+    private final String userMetas;
+    private int attempts;
+
+    public UploadRecord(long id, String path, String location, long size, String md5,
+                        String sts, String uploadId, String userMetas) {
+        this.id = id;
+        this.path = path;
+        this.location = location;
+        this.size = size;
+        this.md5 = md5;
+        this.sts = sts;
+        this.uploadId = uploadId == null ? "" : uploadId;
+        this.userMetas = userMetas == null ? "" : userMetas;
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeLong(id);
+        out.writeUTF(path);
+        out.writeUTF(location);
+        out.writeLong(size);
+        out.writeUTF(md5);
+        out.writeUTF(sts);
+        out.writeUTF(uploadId);
+        out.writeUTF(userMetas);
+    }
+
+    static UploadRecord read(DataInput in) throws IOException {
+        return new UploadRecord(in.readLong(), in.readUTF(), in.readUTF(), in.readLong(), in.readUTF(),
+                in.readUTF(), in.readUTF(), in.readUTF());
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getLocation() {
+        return location;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getMd5() {
+        return md5;
+    }
+
+    public String getSts() {
+        return sts;
+    }
+
+    // empty for a single file
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    // json of the user metas, empty if none
+    public String getUserMetas() {
+        return userMetas;
+    }
+
+    int nextAttempt() {
+        return ++attempts;
+    }
+
+    @Override
+    public String toString() {
+        return "UploadRecord{" + id + ":" + path + "@" + location + " size:" + size + " md5:" + md5
+                + (uploadId.isEmpty() ? "" : " uploadId:" + uploadId) + " attempts:" + attempts + "}";
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright (c) 2025 Yangagile. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloud.pc.upload;
+
+import com.cloud.pc.disk.DiskEntry;
+import com.cloud.pc.disk.DiskIndex;
+import com.cloud.pc.model.PcPath;
+import com.cloud.pc.model.StsInfo;
+import com.cloud.pc.utils.ComUtils;
+import com.cloud.pc.utils.JsonUtils;
+import com.cloud.pc.utils.S3ClientCache;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Uploads the blocks acked from local disk in background. Up to concurrency uploads run at
+ * once from the local files, a failed one is retried with exponential backoff. Blocks stay
+ * pinned on disk until uploaded, and the uploads owed at a stop are resumed from the
+ * journal at the next start. S3 checks every upload against the MD5 the client was given
+ * as ETag, so a block overwritten meanwhile is never uploaded with the wrong content.
+ */
+public class WriteBackUploader {
+    private static final Logger LOG = LoggerFactory.getLogger(WriteBackUploader.class);
+
+    private static WriteBackUploader instance;
+
+    private final UploadJournal journal;
+    private final int concurrency;
+    private final int maxAttempts;
+    private final long retryDelay;
+    private final long maxRetryDelay;
+    private final ScheduledExecutorService retryExecutor =
+            Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("WriteBack-Thread", true));
+    private final Queue<UploadRecord> ready = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    // newest record of every block, an older one is dropped as superseded
+    private final Map<String, UploadRecord> latest = new ConcurrentHashMap<>();
+    private final AtomicLong uploadedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    public static synchronized WriteBackUploader init(UploadJournal journal, int concurrency, int maxAttempts,
+                                                      long retryDelay, long maxRetryDelay) {
+        if (instance == null) {
+            instance = new WriteBackUploader(journal, concurrency, maxAttempts, retryDelay, maxRetryDelay);
+        }
+        return instance;
+    }
+
+    public static WriteBackUploader instance() {
+        return instance;
+    }
+
+    public WriteBackUploader(UploadJournal journal, int concurrency, int maxAttempts,
+                             long retryDelay, long maxRetryDelay) {
+        this.journal = journal;
+        this.concurrency = concurrency;
+        this.maxAttempts = maxAttempts;
+        this.retryDelay = retryDelay;
+        this.maxRetryDelay = maxRetryDelay;
+    }
+
+    // resume the uploads owed from before the last stop
+    public void start() throws IOException {
+        int resumed = 0;
+        for (UploadRecord record : journal.load()) {
+            if (!Files.exists(Paths.get(record.getLocation()))) {
+                LOG.error("local copy is lost, block can't be uploaded {}", record);
+                droppedCount.incrementAndGet();
+                journal.done(record);
+                continue;
+            }
+            latest.put(record.getPath(), record);
+            pin(record, true);
+            ready.add(record);
+            resumed++;
+        }
+        LOG.info("resume {} write back uploads", resumed);
+        pump();
+    }
+
+    public long nextId() {
+        return journal.nextId();
+    }
+
+    // the block is owed to S3 once it returns
+    public void submit(UploadRecord record) throws IOException {
+        journal.add(record);
+        latest.put(record.getPath(), record);
+        pin(record, true);
+        ready.add(record);
+        pump();
+    }
+
+    public int getPendingCount() {
+        return latest.size();
+    }
+
+    public long getUploadedCount() {
+        return uploadedCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public void shutdown() {
+        retryExecutor.shutdownNow();
+        journal.close();
+    }
+
+    private void pump() {
+        while (true) {
+            int n = inFlight.get();
+            if (n >= concurrency) {
+                return;
+            }
+            if (!inFlight.compareAndSet(n, n + 1)) {
+                continue;
+            }
+            UploadRecord record = ready.poll();
+            if (record == null) {
+                inFlight.decrementAndGet();
+                // a record added meanwhile may have found no free slot
+                if (ready.isEmpty()) {
+                    return;
+                }
+                continue;
+            }
+            upload(record);
+        }
+    }
+
+    // user metas are journaled as the JSON of a string map
+    @SuppressWarnings("unchecked")
+    private static Map<String, String> userMetas(UploadRecord record) {
+        return StringUtils.isNotBlank(record.getUserMetas())
+                ? JsonUtils.fromJson(record.getUserMetas(), Map.class) : null;
+    }
+
+    private void upload(UploadRecord record) {
+        if (latest.get(record.getPath()) != record) {
+            LOG.debug("skip superseded upload {}", record);
+            journal.done(record);
+            inFlight.decrementAndGet();
+            return;
+        }
+        CompletableFuture<String> future;
+        try {
+            StsInfo stsInfo = JsonUtils.fromJson(record.getSts(), StsInfo.class);
+            Map<String, String> userMetas = userMetas(record);
+            future = upload(stsInfo, new PcPath(record.getPath()), record.getUploadId(), userMetas,
+                    record.getSize(), record.getMd5(), AsyncRequestBody.fromFile(Paths.get(record.getLocation())));
+        } catch (Exception e) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+        }
+        future.whenComplete((eTag, e) -> {
+            inFlight.decrementAndGet();
+            if (e == null) {
+                LOG.debug("uploaded {} etag:{}", record, eTag);
+                uploadedCount.incrementAndGet();
+                finish(record);
+            } else {
+                retry(record, e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+            }
+            pump();
+        });
+    }
+
+    private void retry(UploadRecord record, Throwable e) {
+        int attempts = record.nextAttempt();
+        if (attempts >= maxAttempts || isPermanent(e)) {
+            LOG.error("give up uploading {}", record, e);
+            droppedCount.incrementAndGet();
+            finish(record);
+            return;
+        }
+        long delay = Math.min(retryDelay << Math.min(attempts - 1, 20), maxRetryDelay);
+        LOG.warn("exception to upload {}, retry in {}ms", record, delay, e);
+        retryExecutor.schedule(() -> {
+            ready.add(record);
+            pump();
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void finish(UploadRecord record) {
+        journal.done(record);
+        if (latest.remove(record.getPath(), record)) {
+            pin(record, false);
+        }
+    }
+
+    private static void pin(UploadRecord record, boolean pinned) {
+        DiskIndex index = DiskIndex.instance();
+        DiskEntry entry = index == null ? null : index.peek(record.getPath());
+        if (entry != null && entry.getLocation().equals(record.getLocation())) {
+            entry.setPinned(pinned);
+        }
+    }
+
+    // a rejected request, such as a digest mismatch or a gone upload id, fails the same way again
+    private static boolean isPermanent(Throwable e) {
+        if (!(e instanceof S3Exception)) {
+            return false;
+        }
+        int status = ((S3Exception) e).statusCode();
+        return status >= 400 && status < 500 && status != 408 && status != 429;
+    }
+
+    // upload a block as a part of uploadId, or as the whole object if it's a single file.
+    // md5 is the hex digest of the body checked by S3, null to skip the check
+    public static CompletableFuture<String> upload(StsInfo stsInfo, PcPath pcPath, String uploadId,
+                                                   Map<String, String> userMetas, long contentLength,
+                                                   String md5, AsyncRequestBody requestBody) {
+        String contentMd5 = md5 == null ? null : Base64.getEncoder().encodeToString(ComUtils.hexToBytes(md5));
+        S3AsyncClient s3Client = S3ClientCache.buildS3AsyncClient(stsInfo, false);
+        if (pcPath.isSingleFile()) {
+            PutObjectRequest putObjectRequest = PutObjectRequest.builder()
+                    .bucket(stsInfo.getBucketName())
+                    .contentLength(contentLength)
+                    .contentMD5(contentMd5)
+                    .metadata(userMetas)
+                    .key(pcPath.getKey()).build();
+            return s3Client.putObject(putObjectRequest, requestBody).thenApply(PutObjectResponse::eTag);
+        }
+        UploadPartRequest uploadRequest = UploadPartRequest.builder()
+                .bucket(stsInfo.getBucketName())
+                .key(pcPath.getKey())
+                .uploadId(uploadId)
+                .partNumber((int)pcPath.getNumber()+1)
+                .contentLength(contentLength)
+                .contentMD5(contentMd5)
+                .build();
+        return s3Client.uploadPart(uploadRequest, requestBody).thenApply(UploadPartResponse::eTag);
+    }
+}
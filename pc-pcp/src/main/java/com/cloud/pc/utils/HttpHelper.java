@@ -16,9 +16,10 @@
 
 package com.cloud.pc.utils;
 
-import com.cloud.pc.config.Envs;
+import com.cloud.pc.disk.DiskVolumes;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.*;
@@ -82,12 +83,14 @@ public class HttpHelper {
         ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
     }
 
-    public static void sendError(ChannelHandlerContext ctx, HttpResponseStatus status) {
+    // the connection is kept alive, add ChannelFutureListener.CLOSE to the returned future if it can't be reused
+    public static ChannelFuture sendError(ChannelHandlerContext ctx, HttpResponseStatus status) {
         FullHttpResponse response = new DefaultFullHttpResponse(
                 HTTP_1_1, status, Unpooled.copiedBuffer("Failure: " + status + "\r\n", CharsetUtil.UTF_8));
         response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/plain; charset=UTF-8");
+        HttpUtil.setContentLength(response, response.content().readableBytes());
 
-        ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+        return ctx.writeAndFlush(response);
     }
 
     public static String sanitizeUri(String uri) {
@@ -100,8 +103,8 @@ public class HttpHelper {
             return null;
         }
         uri = uri.replace('/', File.separatorChar);
-        // Convert to absolute path.
-        return FileUtils.mergePath(Envs.dataDir, uri);
+        // Convert to absolute path on the data dir the block is placed on.
+        return DiskVolumes.instance().localFile(uri.startsWith(File.separator) ? uri.substring(1) : uri);
     }
     public static void sendResponse(ChannelHandlerContext ctx, HttpResponseStatus status,
                                     int hitType, String message) {
@@ -109,6 +112,7 @@ public class HttpHelper {
                 HttpVersion.HTTP_1_1, status, Unpooled.copiedBuffer(message, CharsetUtil.UTF_8));
         response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/plain; charset=UTF-8");
         response.headers().set("X-CACHE-HIT", hitType);
-        ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+        HttpUtil.setContentLength(response, response.content().readableBytes());
+        ctx.writeAndFlush(response);
     }
 }
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2025 Yangagile. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloud.pc.utils;
+
+import com.cloud.pc.config.Envs;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Picks the native epoll transport when it's available, NIO otherwise. With epoll the port
+ * is bound by several SO_REUSEPORT listeners, each on its own acceptor thread, and the
+ * kernel spreads new connections among them.
+ */
+public class TransportHelper {
+    private static final Logger LOG = LoggerFactory.getLogger(TransportHelper.class);
+
+    public static boolean useEpoll() {
+        if (!Envs.nativeTransport) {
+            return false;
+        }
+        if (!Epoll.isAvailable()) {
+            LOG.info("native epoll transport is unavailable, use NIO. reason:{}", Epoll.unavailabilityCause().toString());
+            return false;
+        }
+        return true;
+    }
+
+    public static int acceptorCount(boolean epoll) {
+        return epoll ? Math.max(1, Envs.acceptorCount) : 1;
+    }
+
+    public static EventLoopGroup newEventLoopGroup(boolean epoll, int threads, String name) {
+        DefaultThreadFactory threadFactory = new DefaultThreadFactory(name);
+        return epoll ? new EpollEventLoopGroup(threads, threadFactory) : new NioEventLoopGroup(threads, threadFactory);
+    }
+
+    public static Class<? extends ServerChannel> serverChannelClass(boolean epoll) {
+        return epoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+    }
+
+    public static void configure(ServerBootstrap bootstrap, boolean epoll) {
+        bootstrap.option(ChannelOption.SO_BACKLOG, 1024)
+                .option(ChannelOption.SO_REUSEADDR, true)
+                .childOption(ChannelOption.SO_KEEPALIVE, true)
+                .childOption(ChannelOption.TCP_NODELAY, Envs.tcpNoDelay);
+        if (Envs.tcpRcvBuf > 0) {
+            bootstrap.childOption(ChannelOption.SO_RCVBUF, Envs.tcpRcvBuf);
+        }
+        if (Envs.tcpSndBuf > 0) {
+            bootstrap.childOption(ChannelOption.SO_SNDBUF, Envs.tcpSndBuf);
+        }
+        if (epoll) {
+            bootstrap.option(EpollChannelOption.SO_REUSEPORT, true)
+                    .childOption(EpollChannelOption.TCP_QUICKACK, Envs.tcpQuickAck);
+        }
+    }
+
+    // bind the port once per acceptor
+    public static List<ChannelFuture> bind(ServerBootstrap bootstrap, int port, int acceptors)
+            throws InterruptedException {
+        List<ChannelFuture> futures = new ArrayList<>();
+        for (int i = 0; i < acceptors; i++) {
+            futures.add(bootstrap.bind(port).sync());
+        }
+        return futures;
+    }
+}
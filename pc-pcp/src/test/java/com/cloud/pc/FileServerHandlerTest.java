@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2025 Yangagile. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloud.pc;
+
+import com.cloud.pc.cache.BlockCache;
+import com.cloud.pc.cache.LRUEvictionPolicy;
+import com.cloud.pc.disk.DiskVolumes;
+import com.cloud.pc.model.PcpBlockStatus;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Collections;
+
+public class FileServerHandlerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void test_MemoryHitOnEventLoop() throws Exception {
+        DiskVolumes volumes = DiskVolumes.init(Collections.singletonList(folder.getRoot().toString()), 1, 1, 1, 60);
+        BlockCache.init(1024, new LRUEvictionPolicy());
+        BlockCache.instance().putBlock("bucket/key.1_1", new byte[]{1, 2, 3, 4});
+
+        EmbeddedChannel channel = new EmbeddedChannel(new FileServerHandler());
+        FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/bucket/key.1_1");
+        request.headers().set("X-DATA-SIZE", 2);
+        request.headers().set("X-BLOCK-SIZE", 4);
+        request.headers().set("X-BLOCK-OFFSET", 1);
+        channel.writeInbound(request);
+
+        // answered before the handler returns, no pool is involved
+        FullHttpResponse response = channel.readOutbound();
+        Assert.assertNotNull(response);
+        Assert.assertEquals(HttpResponseStatus.OK, response.status());
+        Assert.assertEquals(String.valueOf(PcpBlockStatus.HIT_MEMORY.getValue()), response.headers().get("X-CACHE-HIT"));
+        Assert.assertArrayEquals(new byte[]{2, 3}, ByteBufUtil.getBytes(response.content()));
+        response.release();
+        channel.finish();
+        volumes.shutdown();
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2025 Yangagile. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloud.pc.cache;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hits per second of a segmented block cache under contention. It's a benchmark rather than a
+ * test, so its name keeps it out of the default test run, run it by mvn test -Dtest=BlockCacheBenchmark
+ */
+public class BlockCacheBenchmark {
+    private static final int BLOCK_COUNT = 1024;
+    private static final int HITS_PER_THREAD = 200000;
+
+    // returns hits per second of concurrent readers
+    static long benchHits(int segmentCount, int threadCount) throws Exception {
+        BlockCache.init(BLOCK_COUNT * 16L, segmentCount, LRUEvictionPolicy::new, null);
+        BlockCache cache = BlockCache.instance();
+        String[] paths = new String[BLOCK_COUNT];
+        for (int i = 0; i < BLOCK_COUNT; i++) {
+            paths[i] = "bucket/key.block" + i;
+            cache.putBlock(paths[i], new byte[8]);
+        }
+
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threadCount);
+        AtomicLong misses = new AtomicLong(0);
+        for (int t = 0; t < threadCount; t++) {
+            final int seed = t;
+            new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < HITS_PER_THREAD; i++) {
+                        BlockData data = cache.acquireBlock(paths[(i * 31 + seed) % BLOCK_COUNT]);
+                        if (data == null) {
+                            misses.incrementAndGet();
+                        } else {
+                            data.release();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long costNs = System.nanoTime() - begin;
+        Assert.assertEquals(0, misses.get());
+        return (long) threadCount * HITS_PER_THREAD * 1000_000_000L / costNs;
+    }
+
+    @Test
+    public void bench_SegmentContention() throws Exception {
+        int threadCount = Runtime.getRuntime().availableProcessors() * 2;
+        // warm up
+        benchHits(1, threadCount);
+        benchHits(16, threadCount);
+
+        long single = benchHits(1, threadCount);
+        long segmented = benchHits(16, threadCount);
+        System.out.printf("threads:%d hits/s 1 segment:%d 16 segments:%d speedup:%.2f%n",
+                threadCount, single, segmented, (double) segmented / single);
+    }
+}
@@ -16,6 +16,9 @@
 
 package com.cloud.pc.cache;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.PooledByteBufAllocator;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -55,4 +58,206 @@ public class BlockCacheTest {
         // frequent of "block2" is 2, the "block1" should be evicted
         Assert.assertNull(BlockCache.instance().getBlock("block1"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void test_OffHeapBlockCache() throws Exception {
+        // 3 bytes block takes a 4 bytes page
+        SlabArena arena = new SlabArena(12, 8, 4);
+        BlockCache.init(12, new LRUEvictionPolicy(), arena);
+        testCache(BlockCache.instance());
+        Assert.assertNull(BlockCache.instance().getBlock("block2"));
+        Assert.assertEquals(12, BlockCache.instance().size());
+
+        BlockData data = BlockCache.instance().acquireBlock("block4");
+        Assert.assertArrayEquals(new byte[]{10, 11, 12}, ByteBufUtil.getBytes(data.content()));
+
+        // the pages are kept until the reader releases the block
+        BlockCache.instance().removeBlock("block4");
+        Assert.assertEquals(1, data.refCnt());
+        data.release();
+        Assert.assertEquals(0, data.refCnt());
+        Assert.assertTrue(BlockCache.instance().putBlock("block5", new byte[]{13, 14, 15, 16}));
+    }
+
+    @Test
+    public void test_PooledBufferBlocks() throws Exception {
+        BlockCache.init(16, new LRUEvictionPolicy());
+        // an array is kept without copy
+        byte[] array = new byte[]{1, 2, 3};
+        BlockCache.instance().putBlock("array", array);
+        BlockData arrayData = BlockCache.instance().acquireBlock("array");
+        Assert.assertTrue(arrayData.content().hasArray());
+        Assert.assertSame(array, arrayData.content().array());
+        arrayData.release();
+
+        // a pooled buffer is taken over and given back once the cache and the readers released it
+        ByteBuf buf = PooledByteBufAllocator.DEFAULT.directBuffer(8, 8);
+        buf.writeBytes(new byte[]{4, 5, 6, 7});
+        Assert.assertTrue(BlockCache.instance().putBlock("pooled", buf));
+        Assert.assertEquals(1, buf.refCnt());
+        Assert.assertEquals(11, BlockCache.instance().size());
+        BlockData data = BlockCache.instance().acquireBlock("pooled");
+        ByteBuf range = data.content().slice(1, 2);
+        Assert.assertArrayEquals(new byte[]{5, 6}, ByteBufUtil.getBytes(range));
+
+        // evicted by a put while a response still holds the block
+        Assert.assertTrue(BlockCache.instance().putBlock("big", new byte[16]));
+        Assert.assertFalse(BlockCache.instance().containsBlock("pooled"));
+        Assert.assertEquals(1, buf.refCnt());
+        Assert.assertEquals(4, data.content().readableBytes());
+        data.release();
+        Assert.assertEquals(0, buf.refCnt());
+
+        // and released when the cache is cleared
+        ByteBuf other = PooledByteBufAllocator.DEFAULT.directBuffer(4, 4);
+        other.writeZero(4);
+        BlockCache.instance().putBlock("other", other);
+        BlockCache.instance().clear();
+        Assert.assertEquals(0, other.refCnt());
+    }
+
+    @Test
+    public void test_SizeClasses() throws Exception {
+        // blocks up to 10 bytes and larger ones get 100 bytes each
+        BlockCache.init(200, 1, LRUEvictionPolicy::new, null, new long[]{10});
+        BlockCache cache = BlockCache.instance();
+        Assert.assertEquals(2, cache.classCount());
+        for (int i = 0; i < 10; i++) {
+            cache.putBlock("small" + i, new byte[10]);
+        }
+        // large blocks only evict each other
+        cache.putBlock("large1", new byte[60]);
+        cache.putBlock("large2", new byte[60]);
+        Assert.assertFalse(cache.containsBlock("large1"));
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(cache.containsBlock("small" + i));
+        }
+        // a block of a new size moves to its class
+        cache.putBlock("small0", new byte[20]);
+        Assert.assertEquals(20, cache.acquireBlock("small0").size());
+        Assert.assertTrue(cache.containsBlock("large2"));
+        Assert.assertEquals(170, cache.size());
+
+        // the full small class with the hits takes capacity from the large one
+        cache.putBlock("small0", new byte[10]);
+        for (int i = 0; i < 10; i++) {
+            BlockData data = cache.acquireBlock("small" + i);
+            data.release();
+        }
+        cache.rebalance(20, 40);
+        Assert.assertEquals(120, cache.getClassCapacity(0));
+        Assert.assertEquals(80, cache.getClassCapacity(1));
+        // no hits since the last rebalance
+        cache.rebalance(20, 40);
+        Assert.assertEquals(120, cache.getClassCapacity(0));
+        // a class keeps its min capacity
+        for (int n = 0; n < 5; n++) {
+            for (int i = 0; i < 4; i++) {
+                cache.putBlock("fill" + n + "_" + i, new byte[10]);
+                cache.getBlock("fill" + n + "_" + i);
+            }
+            cache.rebalance(20, 40);
+        }
+        Assert.assertEquals(40, cache.getClassCapacity(1));
+        Assert.assertEquals(200, cache.getClassCapacity(0) + cache.getClassCapacity(1));
+    }
+
+    @Test
+    public void test_BucketPartitions() throws Exception {
+        // gold reserves 30 bytes, scan is capped at 40
+        BlockCache.init(100, 1, LRUEvictionPolicy::new, null, new long[0],
+                BucketPartitions.of("gold:30:0,scan:0:40", 100));
+        BlockCache cache = BlockCache.instance();
+        for (int i = 0; i < 10; i++) {
+            cache.putBlock("other/x" + i, new byte[10]);
+        }
+        // the idle reservation of gold is lent to others till gold needs it back
+        for (int i = 0; i < 3; i++) {
+            cache.putBlock("gold/g" + i, new byte[10]);
+        }
+        Assert.assertEquals(30, cache.getPartitions().size("gold"));
+        for (int i = 0; i < 10; i++) {
+            cache.putBlock("other/y" + i, new byte[10]);
+        }
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(cache.containsBlock("gold/g" + i));
+        }
+        // a scan at its cap only replaces its own blocks
+        for (int i = 0; i < 10; i++) {
+            cache.putBlock("scan/s" + i, new byte[10]);
+        }
+        Assert.assertEquals(40, cache.getPartitions().size("scan"));
+        Assert.assertTrue(cache.containsBlock("scan/s9"));
+        Assert.assertFalse(cache.containsBlock("scan/s5"));
+        Assert.assertEquals(30, cache.getPartitions().size("gold"));
+        Assert.assertEquals(30, cache.getPartitions().size("other"));
+        Assert.assertEquals(100, cache.size());
+
+        cache.getPartitions().hit("gold/g0", 10);
+        cache.getPartitions().miss("gold/g9");
+        Assert.assertEquals(Long.valueOf(1), cache.getPartitions().getStats().get("gold").get("misses"));
+        Assert.assertEquals(Long.valueOf(10), cache.getPartitions().getStats().get("gold").get("hitBytes"));
+
+        try {
+            BucketPartitions.of("a:60:0,b:50:0", 100);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            // the reservations can't add up to more than the capacity
+        }
+    }
+
+    @Test
+    public void test_ReinsertCold() {
+        IEvictionPolicy[] policies = new IEvictionPolicy[]{new LRUEvictionPolicy(), new LFUEvictionPolicy(),
+                new TinyLFUEvictionPolicy(16, 1, 60 * 1000L)};
+        for (IEvictionPolicy policy : policies) {
+            CacheNode[] nodes = new CacheNode[4];
+            for (int i = 0; i < nodes.length; i++) {
+                nodes[i] = new CacheNode("block" + i, null);
+                policy.insert(nodes[i]);
+            }
+            // kept blocks go back as the coldest, in the order they were evicted
+            CacheNode first = policy.evict();
+            CacheNode second = policy.evict();
+            policy.reinsertCold(second);
+            policy.reinsertCold(first);
+            Assert.assertSame(first, policy.evict());
+            Assert.assertSame(second, policy.evict());
+        }
+    }
+
+    static int scanAndCountHot(BlockCache cache) {
+        // 8 hot blocks read many times
+        for (int i = 0; i < 8; i++) {
+            cache.putBlock("hot" + i, new byte[]{1});
+        }
+        for (int n = 0; n < 3; n++) {
+            for (int i = 0; i < 8; i++) {
+                cache.getBlock("hot" + i);
+            }
+        }
+        // one pass scan of 100 blocks
+        for (int i = 0; i < 100; i++) {
+            cache.putBlock("scan" + i, new byte[]{2});
+        }
+        int hot = 0;
+        for (int i = 0; i < 8; i++) {
+            if (cache.getBlock("hot" + i) != null) {
+                hot++;
+            }
+        }
+        return hot;
+    }
+
+    @Test
+    public void test_TinyLFUScanResistance() throws Exception {
+        BlockCache.init(10, new LRUEvictionPolicy());
+        Assert.assertEquals(0, scanAndCountHot(BlockCache.instance()));
+
+        BlockCache.init(10, new TinyLFUEvictionPolicy(16, 1, 0));
+        int hot = scanAndCountHot(BlockCache.instance());
+        System.out.println("hot blocks kept after scan: " + hot);
+        Assert.assertTrue(hot >= 7);
+        Assert.assertEquals(10, BlockCache.instance().size());
+    }
+}
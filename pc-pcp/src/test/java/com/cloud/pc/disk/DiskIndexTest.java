@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2025 Yangagile. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloud.pc.disk;
+
+import com.cloud.pc.cache.BucketPartitions;
+import com.cloud.pc.scanner.DirectoryFilter;
+import com.cloud.pc.scanner.DiskUsage;
+import com.cloud.pc.scanner.FileStat;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class DiskIndexTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void test_ReloadCheckpointAndJournal() throws Exception {
+        Path dir = folder.newFolder("index").toPath();
+        DiskIndex index = new DiskIndex(dir);
+        Assert.assertFalse(index.load());
+        index.add("bucket/a.0_2", "/data/bucket/a.0_2", 100, 1);
+        index.add("bucket/a.1_2", "/data/bucket/a.1_2", 50, 2);
+        index.checkpoint();
+
+        // changes after the checkpoint are only in the journal
+        index.add("bucket/b.0_1", "/data/bucket/b.0_1", 10, 3);
+        index.remove("bucket/a.0_2");
+
+        // crash without a checkpoint, with a record torn at the end of the journal
+        try (FileOutputStream out = new FileOutputStream(dir.resolve("index.journal").toFile(), true)) {
+            out.write(new byte[]{1, 0, 20, 'b'});
+        }
+
+        DiskIndex reloaded = new DiskIndex(dir);
+        Assert.assertTrue(reloaded.load());
+        Assert.assertEquals(2, reloaded.count());
+        Assert.assertEquals(60, reloaded.size());
+        Assert.assertNull(reloaded.peek("bucket/a.0_2"));
+        Assert.assertEquals(2, reloaded.peek("bucket/a.1_2").getCrc());
+        Assert.assertEquals("/data/bucket/b.0_1", reloaded.get("bucket/b.0_1").getLocation());
+        reloaded.close();
+    }
+
+    @Test
+    public void test_CorruptCheckpointStartsEmpty() throws Exception {
+        Path dir = folder.newFolder("index7").toPath();
+        DiskIndex index = new DiskIndex(dir);
+        index.load();
+        index.add("bucket/a.0_1", "/data/bucket/a.0_1", 10, 0);
+        index.add("bucket/b.0_1", "/data/bucket/b.0_1", 10, 0);
+        index.checkpoint();
+        index.close();
+        // torn in the middle of the entries
+        byte[] checkpoint = Files.readAllBytes(dir.resolve("index.ckpt"));
+        Files.write(dir.resolve("index.ckpt"), Arrays.copyOf(checkpoint, checkpoint.length - 5));
+
+        DiskIndex reloaded = new DiskIndex(dir);
+        Assert.assertFalse(reloaded.load());
+        Assert.assertEquals(0, reloaded.count());
+        Assert.assertEquals(0, reloaded.size());
+        Assert.assertTrue(Files.exists(dir.resolve("index.ckpt.bad")));
+        Assert.assertFalse(Files.exists(dir.resolve("index.ckpt")));
+        // the empty index works as usual
+        reloaded.add("bucket/c.0_1", "/data/bucket/c.0_1", 10, 0);
+        Assert.assertEquals(1, reloaded.count());
+        reloaded.close();
+    }
+
+    @Test
+    public void test_FailedCheckpointsKeepJournal() throws Exception {
+        Path dir = folder.newFolder("index5").toPath();
+        DiskIndex index = new DiskIndex(dir);
+        index.load();
+        index.add("bucket/a.0_1", "/data/bucket/a.0_1", 10, 0);
+        index.checkpoint();
+        // checkpoints fail from now on, each leaves the journal it rotated behind
+        Files.createDirectories(dir.resolve("index.ckpt.tmp"));
+        index.add("bucket/b.0_1", "/data/bucket/b.0_1", 10, 0);
+        index.checkpoint();
+        index.add("bucket/c.0_1", "/data/bucket/c.0_1", 10, 0);
+        index.checkpoint();
+        index.add("bucket/d.0_1", "/data/bucket/d.0_1", 10, 0);
+
+        DiskIndex reloaded = new DiskIndex(dir);
+        reloaded.load();
+        Assert.assertEquals(4, reloaded.count());
+        Assert.assertNotNull(reloaded.peek("bucket/b.0_1"));
+    }
+
+    @Test
+    public void test_EvictKeepsPublishedFile() throws Exception {
+        DiskIndex index = new DiskIndex(folder.newFolder("index6").toPath());
+        index.load();
+        Path file = folder.newFolder("data6").toPath().resolve("a.0_1");
+        Files.write(file, new byte[10]);
+        DiskEntry old = index.add("bucket/a.0_1", file.toString(), 10, 0);
+
+        // a writer is putting a new file in place, the old entry can't take it along
+        index.beginPublish("bucket/a.0_1");
+        Assert.assertFalse(index.evict(old));
+        DiskEntry published = index.add("bucket/a.0_1", file.toString(), 10, 0);
+        index.endPublish("bucket/a.0_1");
+        Assert.assertFalse(index.evict(old));
+        Assert.assertTrue(Files.exists(file));
+
+        Assert.assertTrue(index.evict(published));
+        Assert.assertFalse(Files.exists(file));
+        Assert.assertEquals(0, index.count());
+    }
+
+    @Test
+    public void test_ClockEviction() throws Exception {
+        DiskIndex index = new DiskIndex(folder.newFolder("index2").toPath());
+        index.load();
+        Path data = folder.newFolder("data").toPath();
+        for (int i = 0; i < 10; i++) {
+            Path file = data.resolve("block" + i);
+            Files.write(file, new byte[10]);
+            index.add("block" + i, file.toString(), 10, 0);
+        }
+        // new blocks get a second chance, so the first turn of the hand only clears their bits
+        DiskEvictor evictor = new DiskEvictor(index, 100, 90, 50);
+        evictor.evict();
+        Assert.assertEquals(50, index.size());
+        Assert.assertEquals(5, evictor.getEvictedCount());
+
+        // blocks read since are kept, the others go first
+        List<String> touched = new ArrayList<>();
+        for (int i = 0; i < 10 && touched.size() < 2; i++) {
+            if (index.get("block" + i) != null) {
+                touched.add("block" + i);
+            }
+        }
+        for (int i = 10; i < 13; i++) {
+            Path file = data.resolve("block" + i);
+            Files.write(file, new byte[10]);
+            index.add("block" + i, file.toString(), 10, 0);
+        }
+        DiskEvictor evictor2 = new DiskEvictor(index, 100, 70, 50);
+        evictor2.evict();
+        Assert.assertEquals(50, index.size());
+        for (String path : touched) {
+            Assert.assertNotNull(index.peek(path));
+        }
+        for (int i = 10; i < 13; i++) {
+            Assert.assertNotNull(index.peek("block" + i));
+        }
+        for (int i = 0; i < 13; i++) {
+            Assert.assertEquals(index.peek("block" + i) != null, Files.exists(data.resolve("block" + i)));
+        }
+        evictor2.shutdown();
+        evictor.shutdown();
+    }
+
+    @Test
+    public void test_BucketShares() throws Exception {
+        DiskIndex index = new DiskIndex(folder.newFolder("index4").toPath());
+        // counts the buckets from the index, so it's created before the blocks are added
+        DiskEvictor evictor = new DiskEvictor(index, 100, 90, 50, BucketPartitions.of("gold:30:0,scan:0:20", 100));
+        index.load();
+        Path data = folder.newFolder("data4").toPath();
+        for (String block : new String[]{"gold/a", "gold/b", "gold/c", "scan/a", "scan/b", "scan/c", "scan/d"}) {
+            Path file = data.resolve(block.replace('/', '_'));
+            Files.write(file, new byte[10]);
+            index.add(block + ".0_1", file.toString(), 10, 0);
+        }
+        // under the high watermark, but scan is above its cap, and gold keeps its reservation
+        evictor.evict();
+        Assert.assertEquals(20, evictor.getPartitions().size("scan"));
+        Assert.assertEquals(30, evictor.getPartitions().size("gold"));
+        Assert.assertEquals(50, index.size());
+
+        for (int i = 0; i < 5; i++) {
+            Path file = data.resolve("other" + i);
+            Files.write(file, new byte[10]);
+            index.add("other/" + i + ".0_1", file.toString(), 10, 0);
+        }
+        evictor.evict();
+        Assert.assertEquals(50, index.size());
+        Assert.assertEquals(30, evictor.getPartitions().size("gold"));
+        evictor.shutdown();
+    }
+
+    @Test
+    public void test_ReconcileDeletesOtherCopies() throws Exception {
+        DiskIndex index = new DiskIndex(folder.newFolder("index6").toPath());
+        index.load();
+        Path data1 = folder.newFolder("data6a").toPath();
+        Path data2 = folder.newFolder("data6b").toPath();
+        Files.createDirectories(data1.resolve("bucket"));
+        Files.createDirectories(data2.resolve("bucket"));
+        // same size and different size copies in another dir than the indexed one
+        Files.write(data1.resolve("bucket/a.0_1"), new byte[10]);
+        Files.write(data2.resolve("bucket/a.0_1"), new byte[10]);
+        Files.write(data1.resolve("bucket/b.0_1"), new byte[20]);
+        Files.write(data2.resolve("bucket/b.0_1"), new byte[30]);
+        index.add("bucket/a.0_1", data1.resolve("bucket/a.0_1").toString(), 10, 0);
+        index.add("bucket/b.0_1", data1.resolve("bucket/b.0_1").toString(), 20, 0);
+        // a block being published keeps the file it may have just put in place
+        Files.write(data2.resolve("bucket/c.0_1"), new byte[10]);
+        index.add("bucket/c.0_1", data1.resolve("bucket/c.0_1").toString(), 10, 0);
+        index.beginPublish("bucket/c.0_1");
+
+        int generation = index.beginScan();
+        for (Path data : new Path[]{data1, data2}) {
+            Files.walkFileTree(data, new DirectoryFilter(data, index, generation, 0));
+        }
+        Assert.assertFalse(Files.exists(data2.resolve("bucket/a.0_1")));
+        Assert.assertFalse(Files.exists(data2.resolve("bucket/b.0_1")));
+        Assert.assertTrue(Files.exists(data2.resolve("bucket/c.0_1")));
+        Assert.assertEquals(generation, index.peek("bucket/a.0_1").getMark());
+        Assert.assertEquals(data1.resolve("bucket/b.0_1").toString(), index.peek("bucket/b.0_1").getLocation());
+        Assert.assertEquals(20, index.peek("bucket/b.0_1").getSize());
+        index.endPublish("bucket/c.0_1");
+    }
+
+    @Test
+    public void test_ReconcileAndUsage() throws Exception {
+        DiskIndex index = new DiskIndex(folder.newFolder("index3").toPath());
+        DiskUsage usage = new DiskUsage(index, 60 * 1000L, 3600 * 1000L);
+        index.load();
+        Path data = folder.newFolder("data3").toPath();
+        Files.createDirectories(data.resolve("bucket/empty"));
+        Files.write(data.resolve("bucket/a.0_1"), new byte[10]);
+        Files.write(data.resolve("bucket/b.0_1"), new byte[20]);
+        index.add("bucket/b.0_1", data.resolve("bucket/b.0_1").toString(), 5, 0);
+        index.add("bucket/gone.0_1", data.resolve("bucket/gone.0_1").toString(), 7, 0);
+
+        int generation = index.beginScan();
+        DirectoryFilter filter = new DirectoryFilter(data, index, generation, 0);
+        Files.walkFileTree(data, filter);
+        Assert.assertEquals(2, filter.getFileCount());
+        Assert.assertEquals(2, filter.getAddedCount());
+        Assert.assertEquals(1, filter.getEmptyDirCount());
+        Assert.assertEquals(20, index.peek("bucket/b.0_1").getSize());
+        Assert.assertNotEquals(generation, index.peek("bucket/gone.0_1").getMark());
+
+        // usage follows the index without walking the dir
+        index.remove("bucket/gone.0_1");
+        Assert.assertEquals(30, usage.getUsage().getSize());
+        Assert.assertEquals(2, usage.getUsage().getCount());
+        FileStat[] histogram = usage.getAgeHistogram();
+        long count = 0;
+        for (FileStat stat : histogram) {
+            count += stat.getCount();
+        }
+        Assert.assertEquals(2, count);
+
+        // blocks not accessed for the max span are deleted
+        index.remove("bucket/a.0_1");
+        index.add("bucket/a.0_1", data.resolve("bucket/a.0_1").toString(), 10, 0,
+                System.currentTimeMillis() - 2 * 3600 * 1000L);
+        usage.run();
+        Assert.assertNull(index.peek("bucket/a.0_1"));
+        Assert.assertFalse(Files.exists(data.resolve("bucket/a.0_1")));
+        Assert.assertEquals(1, usage.getUsage().getCount());
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2025 Yangagile. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloud.pc.disk;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Arrays;
+
+public class DiskVolumesTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void test_PlaceAcrossVolumes() throws Exception {
+        String dir0 = folder.newFolder("disk0").toString();
+        String dir1 = folder.newFolder("disk1").toString();
+        String dir2 = folder.newFolder("disk2").toString();
+        DiskVolumes volumes = new DiskVolumes(Arrays.asList(dir0, dir1, dir2), 1, 1, 16, 60);
+
+        // same free space on every dir, blocks are spread evenly and always placed the same
+        int[] placed = new int[3];
+        for (int i = 0; i < 3000; i++) {
+            String block = "bucket/key" + i + ".0_1";
+            DiskVolume volume = volumes.place(block);
+            Assert.assertSame(volume, volumes.place(block));
+            placed[volume.getId()]++;
+        }
+        for (int count : placed) {
+            Assert.assertTrue("placed " + Arrays.toString(placed), count > 800 && count < 1200);
+        }
+
+        // usage is counted on the volume of the location
+        String location = volumes.localFile("bucket/a.0_1");
+        DiskVolume volume = volumes.volumeOf(location);
+        Assert.assertNotNull(volume);
+        DiskEntry entry = new DiskEntry("bucket/a.0_1", location, 100, 0, System.currentTimeMillis());
+        volumes.onAdd(entry);
+        Assert.assertEquals(100, volume.getUsedSize());
+        Assert.assertEquals(1, volume.getFileCount());
+        volumes.onRemove(entry);
+        Assert.assertEquals(0, volume.getUsedSize());
+        Assert.assertNull(volumes.volumeOf("/elsewhere/bucket/a.0_1"));
+        volumes.shutdown();
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2025 Yangagile. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloud.pc.disk;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+public class DiskWriterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void test_WriteAndPublish() throws Exception {
+        String dataDir = folder.newFolder("data").toString();
+        DiskVolumes volumes = new DiskVolumes(Collections.singletonList(dataDir), 1, 1, 16, 60);
+        DiskIndex index = new DiskIndex(folder.newFolder("index").toPath());
+        index.load();
+        DiskWriter writer = new DiskWriter(index, volumes, 1024 * 1024, 8);
+
+        // blocks fetched from remote are written and indexed in background
+        for (int i = 0; i < 20; i++) {
+            String block = "bucket/key" + i + ".0_1";
+            Assert.assertTrue(writer.write(block, volumes.localFile(block), new byte[]{(byte) i}, 0));
+        }
+        long deadline = System.currentTimeMillis() + 10000;
+        while (writer.getWriteCount() < 20 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(20, writer.getWriteCount());
+        Assert.assertEquals(20, index.count());
+        Assert.assertNull(writer.pendingData("bucket/key7.0_1"));
+        Path file = Paths.get(index.peek("bucket/key7.0_1").getLocation());
+        Assert.assertArrayEquals(new byte[]{7}, Files.readAllBytes(file));
+
+        // an upload writes its temp file, which replaces the old block once published
+        String temp = DiskWriter.tempFile(file.toString());
+        Files.write(Paths.get(temp), new byte[]{1, 2, 3});
+        Assert.assertTrue(DiskWriter.isTempFile(Paths.get(temp)));
+        writer.publish("bucket/key7.0_1", temp, file.toString(), 3, 0, true, true).get(10, TimeUnit.SECONDS);
+        Assert.assertArrayEquals(new byte[]{1, 2, 3}, Files.readAllBytes(file));
+        Assert.assertEquals(3, index.peek("bucket/key7.0_1").getSize());
+        Assert.assertTrue(index.peek("bucket/key7.0_1").isPinned());
+
+        // a fill fetched before the upload doesn't replace it
+        long written = writer.getWriteCount();
+        Assert.assertTrue(writer.write("bucket/key7.0_1", file.toString(), new byte[]{9}, 0));
+        Assert.assertTrue(writer.write("bucket/key20.0_1", volumes.localFile("bucket/key20.0_1"), new byte[]{2}, 0));
+        deadline = System.currentTimeMillis() + 10000;
+        while (writer.getWriteCount() < written + 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(written + 1, writer.getWriteCount());
+        Assert.assertArrayEquals(new byte[]{1, 2, 3}, Files.readAllBytes(file));
+        Assert.assertTrue(index.peek("bucket/key7.0_1").isPinned());
+        Assert.assertTrue(writer.getSyncCount() >= 1);
+        Assert.assertFalse(new File(temp).exists());
+        writer.shutdown();
+        volumes.shutdown();
+        index.close();
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2025 Yangagile. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloud.pc.disk;
+
+import io.netty.buffer.ByteBuf;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput of sending disk blocks to a socket read into memory, by sendfile and from mappings.
+ * It's a benchmark rather than a test, so its name keeps it out of the default test run, run it
+ * by mvn test -Dtest=MappedBlockReaderBenchmark
+ */
+public class MappedBlockReaderBenchmark {
+    private static final int BLOCK_COUNT = 32;
+    private static final int BLOCK_SIZE = 1024 * 1024;
+    private static final int ROUNDS = 8;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private interface Sender {
+        void send(DiskEntry entry, SocketChannel socket) throws IOException;
+    }
+
+    // returns MB per second of blocks sent to a local socket
+    private static long bench(DiskEntry[] entries, Sender sender) throws Exception {
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress("127.0.0.1", 0));
+            AtomicLong received = new AtomicLong();
+            try (SocketChannel client = SocketChannel.open(server.getLocalAddress());
+                 SocketChannel peer = server.accept()) {
+                Thread drain = new Thread(() -> {
+                    ByteBuffer buffer = ByteBuffer.allocateDirect(256 * 1024);
+                    try {
+                        int n;
+                        while ((n = peer.read(buffer)) >= 0) {
+                            received.addAndGet(n);
+                            buffer.clear();
+                        }
+                    } catch (IOException ignored) {
+                    }
+                });
+                drain.start();
+                long begin = System.nanoTime();
+                for (int r = 0; r < ROUNDS; r++) {
+                    for (DiskEntry entry : entries) {
+                        sender.send(entry, client);
+                    }
+                }
+                client.shutdownOutput();
+                drain.join();
+                long costNs = System.nanoTime() - begin;
+                Assert.assertEquals((long) ROUNDS * BLOCK_COUNT * BLOCK_SIZE, received.get());
+                return received.get() * 1000L / costNs;
+            }
+        }
+    }
+
+    private static void writeFully(SocketChannel socket, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            socket.write(buffer);
+        }
+    }
+
+    @Test
+    public void bench_DiskReadPaths() throws Exception {
+        Path dir = folder.newFolder("data").toPath();
+        DiskEntry[] entries = new DiskEntry[BLOCK_COUNT];
+        byte[] data = new byte[BLOCK_SIZE];
+        for (int i = 0; i < BLOCK_COUNT; i++) {
+            Path file = dir.resolve("block" + i);
+            data[0] = (byte) i;
+            Files.write(file, data);
+            entries[i] = new DiskEntry("bucket/block" + i, file.toString(), BLOCK_SIZE, 0, 0);
+        }
+        MappedBlockReader reader = new MappedBlockReader((long) BLOCK_COUNT * BLOCK_SIZE);
+
+        Sender readAll = (entry, socket) ->
+                writeFully(socket, ByteBuffer.wrap(Files.readAllBytes(Paths.get(entry.getLocation()))));
+        Sender sendfile = (entry, socket) -> {
+            try (FileChannel channel = FileChannel.open(Paths.get(entry.getLocation()), StandardOpenOption.READ)) {
+                long pos = 0;
+                while (pos < entry.getSize()) {
+                    pos += channel.transferTo(pos, entry.getSize() - pos, socket);
+                }
+            }
+        };
+        Sender mmap = (entry, socket) -> {
+            MappedBlockReader.MappedBlock block = reader.acquire(entry);
+            try {
+                ByteBuf content = block.content();
+                writeFully(socket, content.nioBuffer());
+            } finally {
+                block.release();
+            }
+        };
+
+        // warm up the page cache and the code
+        bench(entries, readAll);
+        bench(entries, sendfile);
+        bench(entries, mmap);
+
+        long readAllRate = bench(entries, readAll);
+        long sendfileRate = bench(entries, sendfile);
+        long mmapRate = bench(entries, mmap);
+        System.out.printf("disk read MB/s readAllBytes:%d sendfile:%d mmap:%d mapped:%d%n",
+                readAllRate, sendfileRate, mmapRate, reader.getMappedCount());
+        reader.clear();
+    }
+}
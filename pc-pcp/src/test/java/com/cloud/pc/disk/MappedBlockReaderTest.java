@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2025 Yangagile. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloud.pc.disk;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class MappedBlockReaderTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DiskEntry block(Path dir, String name, int size) throws Exception {
+        Path file = dir.resolve(name);
+        byte[] data = new byte[size];
+        data[0] = (byte) name.charAt(0);
+        Files.write(file, data);
+        return new DiskEntry("bucket/" + name, file.toString(), size, 0, System.currentTimeMillis());
+    }
+
+    @Test
+    public void test_MappingsInLru() throws Exception {
+        Path dir = folder.newFolder("data").toPath();
+        MappedBlockReader reader = new MappedBlockReader(200);
+        DiskEntry a = block(dir, "a", 100);
+        DiskEntry b = block(dir, "b", 100);
+        DiskEntry c = block(dir, "c", 100);
+
+        MappedBlockReader.MappedBlock blockA = reader.acquire(a);
+        Assert.assertEquals('a', blockA.content().getByte(0));
+        Assert.assertEquals(100, blockA.content().readableBytes());
+        // one reference for the LRU, one for the reader
+        Assert.assertEquals(2, blockA.refCnt());
+        Assert.assertSame(blockA, reader.acquire(a));
+        Assert.assertEquals(1, reader.getHitCount());
+        blockA.release();
+
+        reader.acquire(b).release();
+        // a is the eldest, mapping c pushes it out, it's unmapped once released by the reader
+        MappedBlockReader.MappedBlock blockC = reader.acquire(c);
+        Assert.assertEquals(200, reader.getMappedSize());
+        Assert.assertEquals(1, blockA.refCnt());
+        Assert.assertEquals('a', blockA.content().getByte(0));
+        blockA.release();
+        Assert.assertEquals(0, blockA.refCnt());
+
+        // a removed block isn't served from its old mapping
+        reader.onRemove(c);
+        Assert.assertEquals(1, reader.getMappedCount());
+        Assert.assertEquals(1, blockC.refCnt());
+        blockC.release();
+
+        // a file which doesn't match the index isn't mapped
+        Assert.assertNull(reader.acquire(new DiskEntry("bucket/x", dir.resolve("a").toString(), 50, 0, 0)));
+        reader.clear();
+        Assert.assertEquals(0, reader.getMappedSize());
+    }
+}
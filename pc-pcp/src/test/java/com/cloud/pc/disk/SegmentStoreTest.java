@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2025 Yangagile. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloud.pc.disk;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class SegmentStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] block(int i) {
+        byte[] data = new byte[100];
+        Arrays.fill(data, (byte) i);
+        return data;
+    }
+
+    @Test
+    public void test_IndexedOnCommit() throws Exception {
+        DiskVolumes volumes = new DiskVolumes(Collections.singletonList(folder.newFolder("data2").toString()),
+                1, 1, 16, 60);
+        DiskIndex index = new DiskIndex(folder.newFolder("index2").toPath());
+        SegmentStore store = new SegmentStore(index, volumes, 200, 1000, 50);
+        index.addListener(store);
+        index.load();
+        store.open();
+
+        // appends are indexed only once their segment is synced
+        SegmentStore.Append a = store.append("bucket/a.0_1", block(1), 0, 100, 1);
+        SegmentStore.Append b = store.append("bucket/b.0_1", block(2), 0, 100, 2);
+        Assert.assertNull(index.peek("bucket/a.0_1"));
+        store.commit(Arrays.asList(a, b));
+        Assert.assertEquals(a.getLocation(), index.peek("bucket/a.0_1").getLocation());
+        Assert.assertEquals(2, index.peek("bucket/b.0_1").getCrc());
+        Assert.assertArrayEquals(block(2), SegmentStore.readBlock(index.peek("bucket/b.0_1")));
+        Assert.assertEquals(2, store.getAppendCount());
+        store.shutdown();
+        index.close();
+    }
+
+    @Test
+    public void test_AppendCompactAndReload() throws Exception {
+        String dataDir = folder.newFolder("data").toString();
+        Path indexDir = folder.newFolder("index").toPath();
+        DiskVolumes volumes = new DiskVolumes(Collections.singletonList(dataDir), 1, 1, 16, 60);
+        DiskIndex index = new DiskIndex(indexDir);
+        SegmentStore store = new SegmentStore(index, volumes, 200, 1000, 50);
+        index.addListener(store);
+        index.load();
+        store.open();
+
+        Assert.assertTrue(store.accepts(200));
+        Assert.assertFalse(store.accepts(201));
+        // 10 blocks of 100 fill the first segment, the 11th opens the next one
+        for (int i = 0; i < 11; i++) {
+            String location = store.put("bucket/key" + i + ".0_1", block(i), 0, 100, 0);
+            Assert.assertTrue(SegmentStore.isSegment(location));
+        }
+        Assert.assertEquals(2, store.getSegmentCount());
+        DiskEntry entry = index.peek("bucket/key3.0_1");
+        SegmentStore.Slot slot = SegmentStore.slot(entry.getLocation());
+        Assert.assertEquals(300, slot.getOffset());
+        Assert.assertEquals(100, slot.getLength());
+        Assert.assertArrayEquals(block(3), SegmentStore.readBlock(entry));
+        // the sealed segment gives back its preallocated tail, the open one is preallocated
+        Assert.assertEquals(1000, Files.size(Paths.get(slot.getFile())));
+
+        // evict 6 of the 10 blocks of the sealed segment, the 4 left are moved out of it
+        for (int i = 0; i < 6; i++) {
+            index.remove("bucket/key" + i + ".0_1");
+        }
+        store.compact();
+        Assert.assertEquals(1, store.getCompactCount());
+        Assert.assertEquals(400, store.getMovedSize());
+        Assert.assertFalse(Files.exists(Paths.get(slot.getFile())));
+        for (int i = 6; i < 11; i++) {
+            DiskEntry moved = index.peek("bucket/key" + i + ".0_1");
+            Assert.assertArrayEquals(block(i), SegmentStore.readBlock(moved));
+        }
+        Assert.assertEquals(500, index.size());
+
+        // a restart keeps the segments in the index and deletes the others
+        store.shutdown();
+        index.close();
+        Path orphan = Paths.get(dataDir, SegmentStore.SEGMENT_DIR, "0000000099.seg");
+        Files.write(orphan, block(0));
+        DiskIndex reloaded = new DiskIndex(indexDir);
+        SegmentStore reopened = new SegmentStore(reloaded, volumes, 200, 1000, 50);
+        reloaded.addListener(reopened);
+        reloaded.load();
+        reopened.open();
+        Assert.assertFalse(Files.exists(orphan));
+        Assert.assertEquals(1, reopened.getSegmentCount());
+        Assert.assertEquals(5, reloaded.count());
+        Assert.assertArrayEquals(block(10), SegmentStore.readBlock(reloaded.peek("bucket/key10.0_1")));
+        reopened.shutdown();
+        reloaded.close();
+        volumes.shutdown();
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2025 Yangagile. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cloud.pc.task;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class BodyPublisherTest {
+    private static class Recorder implements Subscriber<ByteBuffer> {
+        Subscription subscription;
+        final List<ByteBuffer> chunks = new ArrayList<>();
+        Throwable error;
+        boolean completed;
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            subscription = s;
+        }
+
+        @Override
+        public void onNext(ByteBuffer chunk) {
+            chunks.add(chunk);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+
+    @Test
+    public void test_DeliverOnDemand() {
+        AtomicLong consumed = new AtomicLong();
+        BodyPublisher body = new BodyPublisher(6, consumed::addAndGet);
+        // chunks offered before the upload subscribes wait in the queue
+        body.offer(ByteBuffer.wrap(new byte[]{1, 2}));
+        body.offer(ByteBuffer.wrap(new byte[]{3, 4}));
+        Recorder recorder = new Recorder();
+        body.subscribe(recorder);
+        Assert.assertTrue(recorder.chunks.isEmpty());
+
+        recorder.subscription.request(1);
+        Assert.assertEquals(1, recorder.chunks.size());
+        Assert.assertEquals(2, consumed.get());
+        recorder.subscription.request(5);
+        body.offer(ByteBuffer.wrap(new byte[]{5, 6}));
+        Assert.assertEquals(3, recorder.chunks.size());
+        Assert.assertFalse(recorder.completed);
+        body.end();
+        Assert.assertTrue(recorder.completed);
+        Assert.assertEquals(6, consumed.get());
+
+        // the body can be sent once only
+        Recorder second = new Recorder();
+        body.subscribe(second);
+        Assert.assertTrue(second.error instanceof IllegalStateException);
+        Assert.assertTrue(second.chunks.isEmpty());
+    }
+
+    @Test
+    public void test_AbortReleasesQueuedChunks() {
+        AtomicLong consumed = new AtomicLong();
+        BodyPublisher body = new BodyPublisher(8, consumed::addAndGet);
+        // the upload failed before it subscribed
+        body.offer(ByteBuffer.wrap(new byte[3]));
+        body.offer(ByteBuffer.wrap(new byte[2]));
+        body.abort(new RuntimeException("rejected"));
+        Assert.assertEquals(5, consumed.get());
+        // the rest of the body is released right away
+        body.offer(ByteBuffer.wrap(new byte[3]));
+        Assert.assertEquals(8, consumed.get());
+
+        Recorder recorder = new Recorder();
+        body.subscribe(recorder);
+        Assert.assertEquals("rejected", recorder.error.getMessage());
+        Assert.assertTrue(recorder.chunks.isEmpty());
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2025 Yangagile. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloud.pc.task;
+
+import com.cloud.pc.model.PcpBlockStatus;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+public class InflightRegistryTest {
+    @Test
+    public void test_CoalesceRequests() {
+        InflightRegistry registry = new InflightRegistry();
+        CompletableFuture<InflightRegistry.Result> leader = new CompletableFuture<>();
+        Assert.assertNull(registry.join("bucket/a.0_2", leader));
+        // later requests of the block wait on the leader's flight, other blocks lead their own
+        Assert.assertSame(leader, registry.join("bucket/a.0_2", new CompletableFuture<>()));
+        Assert.assertSame(leader, registry.join("bucket/a.0_2", new CompletableFuture<>()));
+        Assert.assertNull(registry.join("bucket/a.1_2", new CompletableFuture<>()));
+        Assert.assertEquals(2, registry.size());
+
+        byte[] data = new byte[]{1, 2, 3};
+        registry.complete("bucket/a.0_2", leader, new InflightRegistry.Result(data, PcpBlockStatus.HIT_REMOTE));
+        Assert.assertEquals(1, registry.size());
+        InflightRegistry.Result result = leader.join();
+        Assert.assertSame(data, result.getData());
+        Assert.assertNull(result.getFile());
+        Assert.assertEquals(PcpBlockStatus.HIT_REMOTE, result.getStatus());
+
+        // the next request after the flight leads a new one
+        Assert.assertNull(registry.join("bucket/a.0_2", new CompletableFuture<>()));
+    }
+
+    @Test
+    public void test_FailedLeaderFailsWaiters() {
+        InflightRegistry registry = new InflightRegistry();
+        CompletableFuture<InflightRegistry.Result> leader = new CompletableFuture<>();
+        Assert.assertNull(registry.join("bucket/a.0_1", leader));
+        CompletableFuture<InflightRegistry.Result> waiter = registry.join("bucket/a.0_1", new CompletableFuture<>());
+        registry.complete("bucket/a.0_1", leader, null);
+        Assert.assertTrue(waiter.isDone());
+        Assert.assertNull(waiter.join());
+        Assert.assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void test_ResultFromFileOrData() {
+        InflightRegistry registry = new InflightRegistry();
+        CompletableFuture<InflightRegistry.Result> leader = new CompletableFuture<>();
+        registry.join("bucket/a.0_1", leader);
+        // a block written to local disk without being read into memory is served from its file
+        registry.complete("bucket/a.0_1", leader,
+                new InflightRegistry.Result(null, "/data/bucket/a.0_1", PcpBlockStatus.HIT_DISK));
+        InflightRegistry.Result result = leader.join();
+        Assert.assertNull(result.getData());
+        Assert.assertEquals("/data/bucket/a.0_1", result.getFile());
+        Assert.assertEquals(PcpBlockStatus.HIT_DISK, result.getStatus());
+
+        // completing a flight that's not registered any more leaves the current one alone
+        CompletableFuture<InflightRegistry.Result> next = new CompletableFuture<>();
+        Assert.assertNull(registry.join("bucket/a.0_1", next));
+        registry.complete("bucket/a.0_1", leader, null);
+        Assert.assertEquals(1, registry.size());
+        Assert.assertFalse(next.isDone());
+    }
+}
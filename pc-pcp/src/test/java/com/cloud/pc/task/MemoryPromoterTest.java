@@ -0,0 +1,29 @@
+/*
+ * Copyright (c) 2025 Yangagile. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloud.pc.task;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MemoryPromoterTest {
+    @Test
+    public void test_AdmitPartialReadOnSecondRead() {
+        Assert.assertTrue(MemoryPromoter.admit("bucket/full.0_2", false));
+        Assert.assertFalse(MemoryPromoter.admit("bucket/footer.1_2", true));
+        Assert.assertTrue(MemoryPromoter.admit("bucket/footer.1_2", true));
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2025 Yangagile. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloud.pc.task;
+
+import com.cloud.pc.model.PcPath;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class ReadAheadTest {
+    private static PcPath block(long number) {
+        return new PcPath("bucket", "data/model.ckpt", number, 100);
+    }
+
+    // the stream tracker sees a read before read ahead does
+    private static List<PcPath> read(StreamTracker streams, ReadAhead readAhead, PcPath pcPath) {
+        streams.onRead(pcPath);
+        return readAhead.plan(pcPath);
+    }
+
+    @Test
+    public void test_SequentialOwnedBlocks() {
+        // this PCP owns the even blocks
+        StreamTracker streams = new StreamTracker(4, 16);
+        ReadAhead readAhead = new ReadAhead(8, 2, streams,
+                key -> Long.parseLong(key.substring("data/model.ckpt".length())) % 2 == 0);
+        Assert.assertTrue(read(streams, readAhead, block(0)).isEmpty());
+        // second read in order triggers the window of 4 blocks ahead
+        List<PcPath> blocks = read(streams, readAhead, block(2));
+        Assert.assertEquals(2, blocks.size());
+        Assert.assertEquals(4, blocks.get(0).getNumber());
+        Assert.assertEquals(6, blocks.get(1).getNumber());
+        // blocks already looked at aren't planned again
+        blocks = read(streams, readAhead, block(4));
+        Assert.assertEquals(1, blocks.size());
+        Assert.assertEquals(8, blocks.get(0).getNumber());
+
+        // a random read isn't sequential
+        Assert.assertTrue(read(streams, readAhead, block(50)).isEmpty());
+        // a single file has no following blocks
+        Assert.assertTrue(read(streams, readAhead, new PcPath("bucket", "small", 0, 1)).isEmpty());
+    }
+
+    @Test
+    public void test_BackOffOnPoorHitRate() {
+        StreamTracker streams = new StreamTracker(4, 1);
+        ReadAhead readAhead = new ReadAhead(8, 2, streams, key -> true);
+        Assert.assertEquals(4, readAhead.getWindow());
+        // prefetched blocks pushed out before they are read are wasted, 8 are kept at most
+        for (int i = 0; i < 72; i++) {
+            readAhead.recordPrefetched("bucket/waste." + i + "_100");
+        }
+        Assert.assertEquals(2, readAhead.getWindow());
+        for (int i = 0; i < 128; i++) {
+            readAhead.recordPrefetched("bucket/waste2." + i + "_100");
+        }
+        Assert.assertEquals(0, readAhead.getWindow());
+        read(streams, readAhead, block(0));
+        Assert.assertTrue(read(streams, readAhead, block(1)).isEmpty());
+
+        // blocks read after prefetch grow the window again
+        ReadAhead good = new ReadAhead(8, 2, new StreamTracker(4, 100), key -> true);
+        for (int i = 0; i < 64; i++) {
+            good.recordPrefetched("bucket/hit." + i + "_100");
+            good.plan(new PcPath("bucket/hit." + i + "_100"));
+        }
+        Assert.assertEquals(8, good.getWindow());
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2025 Yangagile. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cloud.pc.task;
+
+import com.cloud.pc.model.PcPath;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ScanDetectorTest {
+    private static PcPath block(String bucket, long number) {
+        return new PcPath(bucket, "data/train.tar", number, 1000);
+    }
+
+    // the stream tracker sees a read before the detector does
+    private static boolean read(StreamTracker streams, ScanDetector detector, PcPath pcPath) {
+        streams.onRead(pcPath);
+        return detector.onRead(pcPath);
+    }
+
+    @Test
+    public void test_DetectScan() {
+        StreamTracker streams = new StreamTracker(4, 16);
+        ScanDetector detector = new ScanDetector(100, 3, streams, ScanDetector.Mode.SECOND,
+                ScanDetector.parseModes("hot:admit, cold:bypass"));
+        // this PCP sees every other block of the read
+        Assert.assertFalse(read(streams, detector, block("bucket", 0)));
+        Assert.assertFalse(read(streams, detector, block("bucket", 2)));
+        Assert.assertTrue(read(streams, detector, block("bucket", 4)));
+        Assert.assertTrue(read(streams, detector, block("bucket", 8)));
+        Assert.assertTrue(detector.bypassPrefetch(block("bucket", 9)));
+        // a random read isn't a scan, and neither is a small object
+        Assert.assertFalse(read(streams, detector, block("bucket", 500)));
+        for (int i = 0; i < 10; i++) {
+            Assert.assertFalse(read(streams, detector, new PcPath("bucket", "small", i, 10)));
+        }
+
+        // a scan block goes to memory once it's read again
+        Assert.assertTrue(detector.admit(block("bucket", 4), false));
+        Assert.assertFalse(detector.admit(block("bucket", 8), true));
+        Assert.assertTrue(detector.admit(block("bucket", 8), true));
+
+        // per bucket modes
+        for (int i = 0; i < 3; i++) {
+            read(streams, detector, block("hot", i));
+            read(streams, detector, block("cold", i));
+        }
+        Assert.assertTrue(detector.admit(block("hot", 2), true));
+        Assert.assertFalse(detector.bypassPrefetch(block("hot", 3)));
+        Assert.assertFalse(detector.admit(block("cold", 2), true));
+        Assert.assertFalse(detector.admit(block("cold", 2), true));
+
+        Assert.assertEquals(Long.valueOf(2), detector.getStats().get("bucket").get("scanReads"));
+        Assert.assertEquals(Long.valueOf(2), detector.getStats().get("bucket").get("bypassed"));
+        Assert.assertEquals(Long.valueOf(1), detector.getStats().get("bucket").get("secondTouch"));
+        Assert.assertEquals(Long.valueOf(2), detector.getStats().get("cold").get("bypassed"));
+    }
+}
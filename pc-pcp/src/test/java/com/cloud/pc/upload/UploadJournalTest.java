@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2025 Yangagile. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloud.pc.upload;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.FileOutputStream;
+import java.nio.file.Path;
+import java.util.List;
+
+public class UploadJournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static UploadRecord record(UploadJournal journal, String path, String uploadId) {
+        return new UploadRecord(journal.nextId(), path, "/data/" + path, 10, "0123456789abcdef0123456789abcdef",
+                "{}", uploadId, null);
+    }
+
+    @Test
+    public void test_ResumePendingUploads() throws Exception {
+        Path dir = folder.newFolder("index").toPath();
+        UploadJournal journal = new UploadJournal(dir);
+        Assert.assertTrue(journal.load().isEmpty());
+        UploadRecord a = record(journal, "bucket/a.0_1", null);
+        UploadRecord b = record(journal, "bucket/b.0_2", "upload-1");
+        UploadRecord c = record(journal, "bucket/b.1_2", "upload-1");
+        journal.add(a);
+        journal.add(b);
+        journal.add(c);
+        journal.done(a);
+
+        // crash with a record torn at the end of the journal
+        try (FileOutputStream out = new FileOutputStream(dir.resolve("uploads.journal").toFile(), true)) {
+            out.write(new byte[]{1, 0, 0, 0});
+        }
+
+        UploadJournal reloaded = new UploadJournal(dir);
+        List<UploadRecord> pending = reloaded.load();
+        Assert.assertEquals(2, pending.size());
+        Assert.assertEquals("bucket/b.0_2", pending.get(0).getPath());
+        Assert.assertEquals("upload-1", pending.get(1).getUploadId());
+        Assert.assertEquals("", pending.get(1).getUserMetas());
+        // ids go on after the resumed ones
+        Assert.assertTrue(reloaded.nextId() > c.getId());
+
+        // the rewritten journal only has the pending records
+        reloaded.done(pending.get(0));
+        reloaded.close();
+        List<UploadRecord> left = new UploadJournal(dir).load();
+        Assert.assertEquals(1, left.size());
+        Assert.assertEquals(c.getId(), left.get(0).getId());
+    }
+}
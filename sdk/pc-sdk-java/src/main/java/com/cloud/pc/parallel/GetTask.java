@@ -126,9 +126,8 @@ public class GetTask implements Runnable {
             String cacheHit = connection.getHeaderField("X-CACHE-HIT");
             stats.addPcpCacheHit(Integer.parseInt(cacheHit));
             eTag = "cache";
-        } finally {
-            connection.disconnect();
         }
+        // the connection goes back to the keep-alive cache once the body is read and closed
         LOG.info("finished get file block: {}", url);
     }
 
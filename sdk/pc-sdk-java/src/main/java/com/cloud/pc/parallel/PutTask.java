@@ -114,10 +114,6 @@ public class PutTask implements Runnable {
             } else {
                 throw new RuntimeException("upload failed. Response Code: "+ responseCode);
             }
-        } finally {
-            if (connection != null) {
-                connection.disconnect();
-            }
         }
     }
 